@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Synthetic rows for the benchmarks, generated from a fixed seed so that runs
+ * are comparable. A fraction of the string values, the match density, holds
+ * one sensitive element; the others are plain words.
+ */
+public class Datasets {
+
+	public static final String FLAT = "flat";
+	public static final String DEEP_STRUCT = "deepStruct";
+	public static final String LARGE_MAP = "largeMap";
+	public static final String ARRAY_OF_STRUCTS = "arrayOfStructs";
+	/** flat rows of Text columns, as read from a table, in ASCII or multibyte words */
+	public static final String ASCII_TEXT = "asciiText";
+	public static final String MULTIBYTE_TEXT = "multibyteText";
+	/** rows of many narrow Text columns: one to three words, or every fourth column an id, amount or date */
+	public static final String WIDE_TEXT = "wideText";
+	static final int WIDE_COLUMNS = 200;
+
+	private static final String[] WORDS = {"lorem", "ipsum", "dolor", "sit", "amet",
+		"consectetur", "adipiscing", "elit", "sed", "do", "eiusmod", "tempor"};
+	// escaped, as the sources are not compiled as UTF-8
+	private static final String[] MULTIBYTE_WORDS = {"donn\u00e9es", "Stra\u00dfe", "na\u00efve",
+		"\u6771\u4eac", "\u30c7\u30fc\u30bf", "\u0434\u0430\u043d\u043d\u044b\u0435", "\u6570\u636e",
+		"\u03b5\u03bb\u03bb\u03b7\u03bd\u03b9\u03ba\u03ac", "\ud55c\uad6d\uc5b4", "caf\u00e9",
+		"r\u00e9sum\u00e9", "gr\u00f6\u00dfe"};
+	private static final String[] SENSITIVE = {"jane.doe@example.com", "123-45-6789",
+		"(408) 555-1234", "10.20.30.40", "4111 1111 1111 1111", "http://example.com/a"};
+	private static final ObjectInspector STRING =
+			PrimitiveObjectInspectorFactory.javaStringObjectInspector;
+	private static final ObjectInspector TEXT =
+			PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+	private static final ObjectInspector INT =
+			PrimitiveObjectInspectorFactory.javaIntObjectInspector;
+
+	/**
+	 * Inspectors of the columns and the rows, as passed to a UDTF.
+	 */
+	public static class Dataset {
+		public final ObjectInspector[] inspectors;
+		public final Object[][] rows;
+
+		Dataset(ObjectInspector[] inspectors, Object[][] rows) {
+			this.inspectors = inspectors;
+			this.rows = rows;
+		}
+	}
+
+	private final Random random;
+	private final double density;
+
+	public Datasets(long seed, double density) {
+		this.random = new Random(seed);
+		this.density = density;
+	}
+
+	/**
+	 * @param name one of FLAT, DEEP_STRUCT, LARGE_MAP, ARRAY_OF_STRUCTS,
+	 * ASCII_TEXT, MULTIBYTE_TEXT and WIDE_TEXT.
+	 */
+	public Dataset generate(String name, int rows) {
+		ObjectInspector[] inspectors;
+		if (FLAT.equals(name)) {
+			inspectors = new ObjectInspector[] {STRING, STRING, INT, STRING, STRING};
+		} else if (DEEP_STRUCT.equals(name)) {
+			inspectors = new ObjectInspector[] {INT, deepStructInspector(5)};
+		} else if (LARGE_MAP.equals(name)) {
+			inspectors = new ObjectInspector[] {INT,
+				ObjectInspectorFactory.getStandardMapObjectInspector(STRING, STRING)};
+		} else if (ARRAY_OF_STRUCTS.equals(name)) {
+			inspectors = new ObjectInspector[] {INT,
+				ObjectInspectorFactory.getStandardListObjectInspector(contactInspector())};
+		} else if (ASCII_TEXT.equals(name) || MULTIBYTE_TEXT.equals(name)) {
+			inspectors = new ObjectInspector[] {TEXT, TEXT, TEXT, TEXT, TEXT};
+		} else if (WIDE_TEXT.equals(name)) {
+			inspectors = new ObjectInspector[WIDE_COLUMNS];
+			Arrays.fill(inspectors, TEXT);
+		} else {
+			throw new IllegalArgumentException("Unknown dataset " + name + ", expected one of "
+					+ Arrays.asList(FLAT, DEEP_STRUCT, LARGE_MAP, ARRAY_OF_STRUCTS, ASCII_TEXT, MULTIBYTE_TEXT,
+							WIDE_TEXT));
+		}
+		String[] words = MULTIBYTE_TEXT.equals(name) ? MULTIBYTE_WORDS : WORDS;
+		Object[][] data = new Object[rows][];
+		for (int r = 0; r < rows; r++) {
+			if (FLAT.equals(name)) {
+				data[r] = new Object[] {text(8), text(3), r, text(12), text(1)};
+			} else if (DEEP_STRUCT.equals(name)) {
+				data[r] = new Object[] {r, deepStruct(5)};
+			} else if (LARGE_MAP.equals(name)) {
+				data[r] = new Object[] {r, map(200)};
+			} else if (WIDE_TEXT.equals(name)) {
+				data[r] = new Object[WIDE_COLUMNS];
+				for (int c = 0; c < WIDE_COLUMNS; c++) {
+					data[r][c] = new Text(c % 4 == 0 ? number() : text(1 + random.nextInt(3), words));
+				}
+			} else if (inspectors[0] == TEXT) {
+				data[r] = new Object[] {new Text(text(8, words)), new Text(text(3, words)), new Text(text(12, words)),
+					new Text(text(20, words)), new Text(text(1, words))};
+			} else {
+				data[r] = new Object[] {r, contacts(50)};
+			}
+		}
+		return new Dataset(inspectors, data);
+	}
+
+	private static ObjectInspector deepStructInspector(int depth) {
+		List<String> names = new ArrayList<>(Arrays.asList("name", "email", "id"));
+		List<ObjectInspector> inspectors = new ArrayList<>(Arrays.asList(STRING, STRING, INT));
+		if (depth > 1) {
+			names.add("child");
+			inspectors.add(deepStructInspector(depth - 1));
+		}
+		return ObjectInspectorFactory.getStandardStructObjectInspector(names, inspectors);
+	}
+
+	private static ObjectInspector contactInspector() {
+		return ObjectInspectorFactory.getStandardStructObjectInspector(
+				Arrays.asList("name", "email", "phone", "zip"),
+				Arrays.asList(STRING, STRING, STRING, INT));
+	}
+
+	private Object deepStruct(int depth) {
+		List<Object> struct = new ArrayList<>(Arrays.<Object>asList(text(2), text(1), random.nextInt()));
+		if (depth > 1) {
+			struct.add(deepStruct(depth - 1));
+		}
+		return struct;
+	}
+
+	private Map<String, String> map(int entries) {
+		Map<String, String> map = new LinkedHashMap<>();
+		for (int i = 0; i < entries; i++) {
+			map.put("key" + i, text(2));
+		}
+		return map;
+	}
+
+	private List<Object> contacts(int count) {
+		List<Object> contacts = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			contacts.add(Arrays.<Object>asList(text(2), text(1), text(1), 10000 + random.nextInt(90000)));
+		}
+		return contacts;
+	}
+
+	/**
+	 * @return digits as found in ids, amounts and dates, which the prefilter
+	 * lets through to the number finders.
+	 */
+	private String number() {
+		switch (random.nextInt(4)) {
+		case 0:
+			return String.valueOf(random.nextInt(100000000));
+		case 1:
+			return random.nextInt(100000) + "." + (10 + random.nextInt(90));
+		case 2:
+			return String.format(Locale.ROOT, "%d-%02d-%02d", 2000 + random.nextInt(17), 1 + random.nextInt(12),
+					1 + random.nextInt(28));
+		default:
+			return "ID " + random.nextInt(1000) + " " + random.nextInt(1000000);
+		}
+	}
+
+	/**
+	 * @return words, with one sensitive element among them with probability
+	 * density.
+	 */
+	private String text(int words) {
+		return text(words, WORDS);
+	}
+
+	private String text(int count, String[] words) {
+		StringBuilder text = new StringBuilder();
+		int sensitive = random.nextDouble() < density ? random.nextInt(count) : -1;
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				text.append(' ');
+			}
+			if (i == sensitive) {
+				text.append(SENSITIVE[random.nextInt(SENSITIVE.length)]);
+			} else {
+				text.append(words[random.nextInt(words.length)]);
+			}
+		}
+		return text.toString();
+	}
+
+}
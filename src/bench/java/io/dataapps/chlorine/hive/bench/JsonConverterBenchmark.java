@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.dataapps.chlorine.hive.JsonConverter;
+
+/**
+ * JSON conversion of one complex column, for each nested schema.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonConverterBenchmark {
+
+	private static final int ROWS = 1024;
+
+	@Param({Datasets.DEEP_STRUCT, Datasets.LARGE_MAP, Datasets.ARRAY_OF_STRUCTS})
+	public String schema;
+
+	private JsonConverter converter;
+	private Object[] values;
+	private int next;
+
+	@Setup
+	public void setup() {
+		Datasets.Dataset dataset = new Datasets(42, 0.1).generate(schema, ROWS);
+		converter = new JsonConverter(dataset.inspectors[1]);
+		values = new Object[ROWS];
+		for (int i = 0; i < ROWS; i++) {
+			values[i] = dataset.rows[i][1];
+		}
+	}
+
+	@Benchmark
+	public Object convert() {
+		Object value = values[next];
+		next = (next + 1) % ROWS;
+		return converter.convert(value);
+	}
+
+}
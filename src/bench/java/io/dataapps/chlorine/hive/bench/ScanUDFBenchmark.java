@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.dataapps.chlorine.hive.ScanUDF;
+
+/**
+ * ScanUDF.process over synthetic rows, per schema and match density.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScanUDFBenchmark {
+
+	private static final int ROWS = 1024;
+
+	@Param({Datasets.FLAT, Datasets.DEEP_STRUCT, Datasets.LARGE_MAP, Datasets.ARRAY_OF_STRUCTS})
+	public String schema;
+
+	@Param({"0.0", "0.1", "0.5"})
+	public double density;
+
+	private ScanUDF udf;
+	private Object[][] rows;
+	private int next;
+
+	@Setup
+	public void setup(final Blackhole blackhole) throws HiveException {
+		Datasets.Dataset dataset = new Datasets(42, density).generate(schema, ROWS);
+		rows = dataset.rows;
+		udf = new ScanUDF();
+		udf.initialize(dataset.inspectors);
+		udf.setCollector(new Collector() {
+			@Override
+			public void collect(Object input) {
+				blackhole.consume(input);
+			}
+		});
+	}
+
+	@Benchmark
+	public void process() throws HiveException {
+		udf.process(rows[next]);
+		next = (next + 1) % ROWS;
+	}
+
+}
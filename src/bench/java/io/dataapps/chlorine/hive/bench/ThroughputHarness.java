@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.mapred.JobConf;
+
+import io.dataapps.chlorine.hive.ScanUDF;
+
+/**
+ * Drives ScanUDF through initialize, process and close over a generated
+ * dataset, the way a task does, and reports rows/s, MB/s and what the
+ * scanning thread allocates, per second and per row.
+ *
+ * Usage: ThroughputHarness [dataset [rows [density [runs]]]] [option=value...],
+ * with defaults flat, 100000, 0.1 and 5, and options such as
+ * chlorine.scan.fused=true set in the job configuration the function gets.
+ * The first run is a warm up and is not reported.
+ */
+public class ThroughputHarness {
+
+	/**
+	 * Counts the output rows, and keeps the TotalSize row emitted by close().
+	 */
+	static class CountingCollector implements Collector {
+		long rows;
+		long totalSize;
+
+		@Override
+		public void collect(Object input) {
+			rows++;
+			Object[] row = (Object[]) input;
+			if ("TotalSize".equals(row[0])) {
+				totalSize = (Long) row[1];
+			}
+		}
+	}
+
+	public static void main(String[] args) throws HiveException {
+		JobConf conf = new JobConf(false);
+		int positional = 0;
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals > 0) {
+				conf.set(arg.substring(0, equals), arg.substring(equals + 1));
+			} else {
+				args[positional++] = arg;
+			}
+		}
+		String name = positional > 0 ? args[0] : Datasets.FLAT;
+		int rows = positional > 1 ? Integer.parseInt(args[1]) : 100000;
+		double density = positional > 2 ? Double.parseDouble(args[2]) : 0.1;
+		int runs = positional > 3 ? Integer.parseInt(args[3]) : 5;
+		MapredContext context = MapredContext.init(true, conf);
+
+		Datasets.Dataset dataset = new Datasets(42, density).generate(name, rows);
+		System.out.println(String.format(Locale.ROOT, "dataset=%s rows=%d density=%.2f", name, rows, density));
+		for (int run = 0; run <= runs; run++) {
+			long before = allocatedBytes();
+			long start = System.nanoTime();
+			CountingCollector collector = scan(dataset, context);
+			long nanos = System.nanoTime() - start;
+			long allocated = before < 0 ? -1 : allocatedBytes() - before;
+			if (run == 0) {
+				continue;
+			}
+			double seconds = nanos / 1e9;
+			System.out.println(String.format(Locale.ROOT,
+					"run %d: %.0f rows/s, %.2f MB/s, %.1f MB/s allocated, %.0f bytes/row allocated, %d output rows",
+					run, rows / seconds, collector.totalSize / seconds / 1e6,
+					allocated < 0 ? Double.NaN : allocated / seconds / 1e6,
+					allocated < 0 ? Double.NaN : (double) allocated / rows, collector.rows));
+		}
+	}
+
+	static CountingCollector scan(Datasets.Dataset dataset, MapredContext context) throws HiveException {
+		ScanUDF udf = new ScanUDF();
+		CountingCollector collector = new CountingCollector();
+		udf.configure(context);
+		udf.initialize(dataset.inspectors);
+		udf.setCollector(collector);
+		for (Object[] row : dataset.rows) {
+			udf.process(row);
+		}
+		udf.close();
+		return collector;
+	}
+
+	/**
+	 * @return the bytes allocated by the current thread, -1 if the JVM does
+	 * not tell.
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+}
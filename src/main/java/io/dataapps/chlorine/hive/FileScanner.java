@@ -0,0 +1,693 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.io.orc.MetadataReader;
+import org.apache.hadoop.hive.ql.io.orc.OrcFile;
+import org.apache.hadoop.hive.ql.io.orc.OrcProto;
+import org.apache.hadoop.hive.ql.io.orc.Reader;
+import org.apache.hadoop.hive.ql.io.orc.RecordReader;
+import org.apache.hadoop.hive.ql.io.orc.StripeInformation;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.io.HiveBaseCharWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.LineReader;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Scans ORC and delimited text files without Hive. The files under the given
+ * local or Hadoop paths are scanned on a work-stealing pool, ORC files stripe
+ * by stripe and text files whole, with the row scan of {@link ScanUDF}. The
+ * results are written in its output schema, type, count, fieldpos, value and
+ * path, tab separated, followed by the totals of all the files.
+ *
+ * A string column which an ORC stripe stores as a dictionary is scanned once
+ * per dictionary entry rather than once per row: each entry with matches is
+ * written once, its count multiplied by the number of rows holding it.
+ *
+ * Usage: FileScanner [-D option=value...] [-finders names|file.xml]
+ * [-threads n] [-delimiter c] [-output path] path...
+ */
+public class FileScanner extends Configured implements Tool {
+	static final Log LOG = LogFactory.getLog(FileScanner.class);
+
+	private static final byte[] ORC_MAGIC = {'O', 'R', 'C'};
+	// a task writes its output in pieces of about this many chars
+	private static final int FLUSH_CHARS = 64 << 10;
+
+	private String finders;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	// Hive's default field delimiter, ^A
+	private byte delimiter = 1;
+	private ScanOptions options;
+	private MatchValues values;
+	private Writer out;
+
+	public static void main(String[] args) throws Exception {
+		System.exit(ToolRunner.run(new FileScanner(), args));
+	}
+
+	@Override
+	public int run(String[] args) throws Exception {
+		List<Path> paths = new ArrayList<>();
+		String output = null;
+		for (int i = 0; i < args.length; i++) {
+			boolean hasValue = i + 1 < args.length;
+			if ("-finders".equals(args[i]) && hasValue) {
+				finders = args[++i];
+			} else if ("-threads".equals(args[i]) && hasValue) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("-delimiter".equals(args[i]) && hasValue) {
+				delimiter = delimiter(args[++i]);
+			} else if ("-output".equals(args[i]) && hasValue) {
+				output = args[++i];
+			} else if (args[i].startsWith("-")) {
+				return usage();
+			} else {
+				paths.add(new Path(args[i]));
+			}
+		}
+		if (paths.isEmpty()) {
+			return usage();
+		}
+		Writer writer;
+		if (output == null) {
+			writer = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+		} else {
+			Path path = new Path(output);
+			writer = new OutputStreamWriter(path.getFileSystem(getConf()).create(path), StandardCharsets.UTF_8);
+		}
+		try {
+			scan(paths, writer);
+		} finally {
+			if (output == null) {
+				writer.flush();
+			} else {
+				writer.close();
+			}
+		}
+		return 0;
+	}
+
+	private static int usage() {
+		System.err.println("Usage: FileScanner [-D option=value...] [-finders names|file.xml] [-threads n]"
+				+ " [-delimiter c] [-output path] path...");
+		return 2;
+	}
+
+	/**
+	 * @param value a character, \t, or the octal code of a character such as \001.
+	 */
+	static byte delimiter(String value) {
+		if ("\\t".equals(value)) {
+			return '\t';
+		}
+		if (value.length() > 1 && value.charAt(0) == '\\') {
+			return (byte) Integer.parseInt(value.substring(1), 8);
+		}
+		if (value.length() != 1 || value.charAt(0) > 127) {
+			throw new IllegalArgumentException("Not a delimiter: " + value);
+		}
+		return (byte) value.charAt(0);
+	}
+
+	/**
+	 * @param finders the names of the finders to run, or a finder definition
+	 * file, null for the ones of the configuration.
+	 */
+	public void setFinders(String finders) {
+		this.finders = finders;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setDelimiter(byte delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * Scans the files under paths and writes the results, then the totals, to out.
+	 */
+	public void scan(List<Path> paths, Writer out) throws IOException, HiveException {
+		if (getConf() == null) {
+			setConf(new Configuration());
+		}
+		this.options = new ScanOptions(getConf());
+		this.values = MatchValues.of(options);
+		this.out = out;
+		Totals totals = new Totals();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new ListTask(paths, totals));
+		} catch (RuntimeException e) {
+			for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				if (cause instanceof HiveException) {
+					throw (HiveException) cause;
+				}
+			}
+			throw e;
+		} finally {
+			pool.shutdown();
+		}
+		Output output = new Output();
+		output.write("TotalRecords", totals.records, -2, "", "");
+		output.write("TotalMatches", totals.matches, -2, "", "");
+		output.write("MatchedRecords", totals.matchedRecords, -2, "", "");
+		output.write("TotalSize", totals.size, -2, "", "");
+		output.write("DictionaryValues", totals.dictionaryValues, -2, "", "");
+		output.write("DictionaryEntries", totals.dictionaryEntries, -2, "", "");
+		output.flush();
+	}
+
+	/**
+	 * What the tasks scanned, added up.
+	 */
+	static class Totals {
+		long records;
+		long matches;
+		long matchedRecords;
+		long size;
+		// values served from ORC dictionaries, and the entries scanned for them
+		long dictionaryValues;
+		long dictionaryEntries;
+
+		void scanned(long rowMatches) {
+			records++;
+			if (rowMatches > 0) {
+				matches += rowMatches;
+				matchedRecords++;
+			}
+		}
+
+		synchronized void add(Totals other) {
+			records += other.records;
+			matches += other.matches;
+			matchedRecords += other.matchedRecords;
+			size += other.size;
+			dictionaryValues += other.dictionaryValues;
+			dictionaryEntries += other.dictionaryEntries;
+		}
+	}
+
+	/**
+	 * The rows of one task, written out in pieces so that the lines of
+	 * concurrent tasks do not mix.
+	 */
+	private class Output implements RowScanner.MatchHandler {
+		private final StringBuilder buffer = new StringBuilder();
+
+		@Override
+		public void matched(String type, List<String> result, int fieldPos, CharSequence path)
+				throws HiveException {
+			buffer.append(type).append('\t').append(result.size()).append('\t').append(fieldPos).append('\t');
+			// listed straight into the buffer
+			values.append(result, buffer);
+			end(path);
+		}
+
+		void write(String type, long count, int fieldPos, String value, CharSequence path)
+				throws HiveException {
+			buffer.append(type).append('\t').append(count).append('\t').append(fieldPos).append('\t')
+					.append(value);
+			end(path);
+		}
+
+		private void end(CharSequence path) throws HiveException {
+			buffer.append('\t').append(path).append('\n');
+			if (buffer.length() >= FLUSH_CHARS) {
+				flush();
+			}
+		}
+
+		void flush() throws HiveException {
+			synchronized (out) {
+				try {
+					out.append(buffer);
+				} catch (IOException e) {
+					throw new HiveException(e);
+				}
+			}
+			buffer.setLength(0);
+		}
+	}
+
+	/**
+	 * A task of the pool. Failures are rethrown by scan().
+	 */
+	private abstract static class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+			try {
+				scan();
+			} catch (IOException | HiveException e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+
+		abstract void scan() throws IOException, HiveException;
+	}
+
+	/**
+	 * Lists the files under the paths and scans them in parallel.
+	 */
+	private class ListTask extends ScanTask {
+		private static final long serialVersionUID = 1L;
+		private final List<Path> paths;
+		private final Totals totals;
+
+		ListTask(List<Path> paths, Totals totals) {
+			this.paths = paths;
+			this.totals = totals;
+		}
+
+		@Override
+		void scan() throws IOException {
+			List<FileTask> tasks = new ArrayList<>();
+			for (Path path : paths) {
+				FileSystem fs = path.getFileSystem(getConf());
+				list(fs, fs.getFileStatus(path), tasks);
+			}
+			invokeAll(tasks);
+		}
+
+		private void list(FileSystem fs, FileStatus status, List<FileTask> tasks) throws IOException {
+			String name = status.getPath().getName();
+			// like Hive, skip the files of jobs and hidden files
+			if (name.startsWith("_") || name.startsWith(".")) {
+				return;
+			}
+			if (status.isDirectory()) {
+				for (FileStatus child : fs.listStatus(status.getPath())) {
+					list(fs, child, tasks);
+				}
+			} else if (status.getLen() > 0) {
+				tasks.add(new FileTask(fs, status, totals));
+			}
+		}
+	}
+
+	/**
+	 * Scans a text file, or splits an ORC file into stripes.
+	 */
+	private class FileTask extends ScanTask {
+		private static final long serialVersionUID = 1L;
+		private final FileSystem fs;
+		private final FileStatus status;
+		private final Totals totals;
+
+		FileTask(FileSystem fs, FileStatus status, Totals totals) {
+			this.fs = fs;
+			this.status = status;
+			this.totals = totals;
+		}
+
+		@Override
+		void scan() throws IOException, HiveException {
+			if (isOrc()) {
+				Reader reader = OrcFile.createReader(status.getPath(), OrcFile.readerOptions(getConf()).filesystem(fs));
+				boolean[] include = include(reader);
+				List<StripeTask> tasks = new ArrayList<>();
+				for (StripeInformation stripe : reader.getStripes()) {
+					tasks.add(new StripeTask(status.getPath(), reader, stripe, include, totals));
+				}
+				invokeAll(tasks);
+			} else {
+				scanText();
+			}
+		}
+
+		private boolean isOrc() throws IOException {
+			if (status.getLen() < ORC_MAGIC.length) {
+				return false;
+			}
+			byte[] head = new byte[ORC_MAGIC.length];
+			try (FSDataInputStream in = fs.open(status.getPath())) {
+				in.readFully(0, head);
+			}
+			return Arrays.equals(head, ORC_MAGIC);
+		}
+
+		/**
+		 * @return the ORC columns to read, those of the top level columns
+		 * which have finders to run.
+		 */
+		private boolean[] include(Reader reader) throws HiveException {
+			StructObjectInspector inspector = (StructObjectInspector) reader.getObjectInspector();
+			RowScanner scanner = newScanner(inspectors(inspector));
+			List<OrcProto.Type> types = reader.getTypes();
+			boolean[] include = new boolean[types.size()];
+			include[0] = true;
+			int columns = types.get(0).getSubtypesCount();
+			for (int i = 0; i < columns; i++) {
+				int end = i + 1 < columns ? types.get(0).getSubtypes(i + 1) : types.size();
+				for (int id = types.get(0).getSubtypes(i); id < end; id++) {
+					include[id] = scanner.isScanned(i);
+				}
+			}
+			return include;
+		}
+
+		/**
+		 * Scans a delimited text file, possibly compressed, with as many
+		 * columns as its first line has fields. Missing fields are null and
+		 * extra fields are ignored, as in a Hive text table.
+		 */
+		private void scanText() throws IOException, HiveException {
+			InputStream in = fs.open(status.getPath());
+			CompressionCodec codec = new CompressionCodecFactory(getConf()).getCodec(status.getPath());
+			if (codec != null) {
+				in = codec.createInputStream(in);
+			}
+			Totals scanned = new Totals();
+			Output output = new Output();
+			try (LineReader lines = new LineReader(in, getConf())) {
+				Text line = new Text();
+				RowScanner scanner = null;
+				Text[] fields = null;
+				Object[] row = null;
+				int first = 0;
+				while (lines.readLine(line) > 0) {
+					if (scanner == null) {
+						fields = new Text[fieldCount(line)];
+						ObjectInspector[] inspectors = new ObjectInspector[fields.length];
+						for (int c = 0; c < fields.length; c++) {
+							fields[c] = new Text();
+							inspectors[c] = PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+						}
+						first = finders == null ? 0 : 1;
+						scanner = newScanner(inspectors);
+						row = new Object[first + fields.length];
+					}
+					split(line, fields, row, first);
+					scanned.scanned(scanner.scan(row, output));
+				}
+				if (scanner != null) {
+					scanned.size += scanner.getTotalSize();
+				}
+			}
+			output.flush();
+			totals.add(scanned);
+		}
+
+		private int fieldCount(Text line) {
+			int count = 1;
+			for (int i = 0; i < line.getLength(); i++) {
+				if (line.getBytes()[i] == delimiter) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		private void split(Text line, Text[] fields, Object[] row, int first) {
+			byte[] bytes = line.getBytes();
+			int start = 0;
+			int c = 0;
+			for (int i = 0; i <= line.getLength() && c < fields.length; i++) {
+				if (i == line.getLength() || bytes[i] == delimiter) {
+					fields[c].set(bytes, start, i - start);
+					row[first + c] = fields[c];
+					c++;
+					start = i + 1;
+				}
+			}
+			for (; c < fields.length; c++) {
+				row[first + c] = null;
+			}
+		}
+	}
+
+	/**
+	 * An entry of an ORC dictionary, the matches of its value and the rows
+	 * holding it.
+	 */
+	private class Entry implements RowScanner.MatchHandler {
+		long matches;
+		long occurrences;
+		// what each finder found in the value, null if nothing
+		List<Found> found;
+
+		@Override
+		public void matched(String type, List<String> result, int fieldPos, CharSequence path) {
+			if (found == null) {
+				found = new ArrayList<>(1);
+			}
+			found.add(new Found(type, result.size(), values.append(result, new StringBuilder()).toString(),
+					path.toString()));
+		}
+	}
+
+	private static class Found {
+		final String type;
+		final int count;
+		final String value;
+		final String path;
+
+		Found(String type, int count, String value, String path) {
+			this.type = type;
+			this.count = count;
+			this.value = value;
+			this.path = path;
+		}
+	}
+
+	/**
+	 * Scans one stripe of an ORC file.
+	 */
+	private class StripeTask extends ScanTask {
+		private static final long serialVersionUID = 1L;
+		private final Path path;
+		private final Reader reader;
+		private final StripeInformation stripe;
+		private final boolean[] include;
+		private final Totals totals;
+
+		StripeTask(Path path, Reader reader, StripeInformation stripe, boolean[] include, Totals totals) {
+			this.path = path;
+			this.reader = reader;
+			this.stripe = stripe;
+			this.include = include;
+			this.totals = totals;
+		}
+
+		@Override
+		void scan() throws IOException, HiveException {
+			StructObjectInspector inspector = (StructObjectInspector) reader.getObjectInspector();
+			List<? extends StructField> fields = inspector.getAllStructFieldRefs();
+			RowScanner scanner = newScanner(inspectors(inspector));
+			int first = finders == null ? 0 : 1;
+			Map<Text, Entry>[] dictionaries = dictionaries(inspector, scanner);
+			Object[] row = new Object[first + fields.size()];
+			// a row with only the value of a new dictionary entry
+			Object[] single = new Object[row.length];
+			Totals scanned = new Totals();
+			Output output = new Output();
+
+			RecordReader rows = reader.rowsOptions(new Reader.Options().include(include)
+					.range(stripe.getOffset(), stripe.getLength()));
+			try {
+				Object struct = null;
+				while (rows.hasNext()) {
+					struct = rows.next(struct);
+					long matches = 0;
+					for (int i = 0; i < fields.size(); i++) {
+						Object value = inspector.getStructFieldData(struct, fields.get(i));
+						Text text = dictionaries[i] == null ? null : text(value);
+						if (text == null) {
+							row[first + i] = value;
+							continue;
+						}
+						row[first + i] = null;
+						Entry entry = dictionaries[i].get(text);
+						if (entry == null) {
+							entry = new Entry();
+							single[first + i] = value;
+							entry.matches = scanner.scan(single, entry);
+							single[first + i] = null;
+							dictionaries[i].put(new Text(text), entry);
+							scanned.dictionaryEntries++;
+						} else {
+							scanned.size += text.getLength();
+						}
+						entry.occurrences++;
+						scanned.dictionaryValues++;
+						matches += entry.matches;
+					}
+					scanned.scanned(matches + scanner.scan(row, output));
+				}
+			} finally {
+				rows.close();
+			}
+			scanned.size += scanner.getTotalSize();
+			for (int i = 0; i < dictionaries.length; i++) {
+				if (dictionaries[i] == null) {
+					continue;
+				}
+				for (Entry entry : dictionaries[i].values()) {
+					if (entry.found != null) {
+						for (Found found : entry.found) {
+							output.write(found.type, found.count * entry.occurrences, i, found.value, found.path);
+						}
+					}
+				}
+			}
+			output.flush();
+			totals.add(scanned);
+		}
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		private Map<Text, Entry>[] newDictionaries(int size) {
+			return new Map[size];
+		}
+
+		/**
+		 * @return per column, a map for the entries of its dictionary if the
+		 * stripe stores it as one, null otherwise.
+		 */
+		private Map<Text, Entry>[] dictionaries(StructObjectInspector inspector, RowScanner scanner)
+				throws IOException {
+			List<? extends StructField> fields = inspector.getAllStructFieldRefs();
+			Map<Text, Entry>[] dictionaries = newDictionaries(fields.size());
+			OrcProto.StripeFooter footer;
+			MetadataReader metadata = reader.metadata();
+			try {
+				footer = metadata.readStripeFooter(stripe);
+			} finally {
+				metadata.close();
+			}
+			OrcProto.Type root = reader.getTypes().get(0);
+			for (int i = 0; i < fields.size(); i++) {
+				ObjectInspector field = fields.get(i).getFieldObjectInspector();
+				if (!scanner.isScanned(i) || field.getCategory() != Category.PRIMITIVE) {
+					continue;
+				}
+				switch (((PrimitiveObjectInspector) field).getPrimitiveCategory()) {
+				case STRING:
+				case VARCHAR:
+				case CHAR:
+					break;
+				default:
+					continue;
+				}
+				OrcProto.ColumnEncoding encoding = footer.getColumns(root.getSubtypes(i));
+				boolean dictionary = encoding.getKind() == OrcProto.ColumnEncoding.Kind.DICTIONARY
+						|| encoding.getKind() == OrcProto.ColumnEncoding.Kind.DICTIONARY_V2;
+				if (dictionary && encoding.getDictionarySize() <= options.dictionaryEntries) {
+					dictionaries[i] = new LinkedHashMap<>();
+				} else if (dictionary) {
+					LOG.info("Scanning column " + i + " of " + path + " row by row, its dictionary has "
+							+ encoding.getDictionarySize() + " entries");
+				}
+			}
+			return dictionaries;
+		}
+	}
+
+	/**
+	 * @return the bytes of a string, varchar or char value, null if value is null.
+	 */
+	private static Text text(Object value) {
+		if (value instanceof Text) {
+			return (Text) value;
+		}
+		if (value instanceof HiveBaseCharWritable) {
+			return ((HiveBaseCharWritable) value).getTextValue();
+		}
+		return null;
+	}
+
+	private static ObjectInspector[] inspectors(StructObjectInspector inspector) {
+		List<? extends StructField> fields = inspector.getAllStructFieldRefs();
+		ObjectInspector[] inspectors = new ObjectInspector[fields.size()];
+		for (int i = 0; i < inspectors.length; i++) {
+			inspectors[i] = fields.get(i).getFieldObjectInspector();
+		}
+		return inspectors;
+	}
+
+	/**
+	 * @return a scanner of rows of columns, set up as ScanUDF sets up its own.
+	 */
+	private RowScanner newScanner(ObjectInspector[] columns) throws HiveException {
+		ObjectInspector[] arguments = columns;
+		if (finders != null) {
+			// the finders are chosen by a constant first argument, as in a query
+			arguments = new ObjectInspector[columns.length + 1];
+			arguments[0] = PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+					TypeInfoFactory.stringTypeInfo, new Text(finders));
+			System.arraycopy(columns, 0, arguments, 1, columns.length);
+		}
+		RowScanner scanner = new RowScanner(arguments, 0, options);
+		if (finders != null && scanner.getSelection() == null) {
+			// scanned as a column, it would shift the others
+			FinderPlanner.select(FinderRegistry.lookup(options).getFinders(), finders);
+			throw new UDFArgumentException("-finders " + finders + " names no finder");
+		}
+		if (options.cacheEntries > 0) {
+			scanner.enableCache(options.cacheEntries, options.cacheBytes, options.cacheMaxValueLength);
+		}
+		if (options.prefilter) {
+			scanner.enablePrefilter();
+		}
+		if (options.windowSize > 0) {
+			scanner.enableWindows(options.windowSize, options.windowOverlap);
+		}
+		if (options.fused) {
+			scanner.enableFused(options.fusedMaxValueLength);
+		}
+		return scanner;
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorExpressionDescriptor;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+
+/**
+ * Vectorized <code>where has_sensitive(col)</code>: keeps the rows of the
+ * batch in which any finder finds something. Null values are filtered out.
+ * Carries the options of the session, see {@link SensitiveVectorExpression}.
+ */
+public class FilterHasSensitive extends VectorExpression {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * <code>where has_sensitive(col, finders)</code>.
+	 */
+	public static class WithFinders extends FilterHasSensitive {
+		private static final long serialVersionUID = 1L;
+
+		public WithFinders() {
+		}
+
+		public WithFinders(int colNum, byte[] finderNames) {
+			super(colNum, finderNames);
+		}
+
+		@Override
+		public VectorExpressionDescriptor.Descriptor getDescriptor() {
+			return SensitiveVectorExpression.descriptor(VectorExpressionDescriptor.Mode.FILTER, true);
+		}
+	}
+
+	private int colNum;
+	private byte[] finderNames;
+	// see ScanOptions.sessionSettings()
+	private String[] settings;
+	private transient SliceScanner scanner;
+
+	public FilterHasSensitive() {
+	}
+
+	public FilterHasSensitive(int colNum) {
+		this(colNum, null);
+	}
+
+	protected FilterHasSensitive(int colNum, byte[] finderNames) {
+		this.colNum = colNum;
+		this.finderNames = finderNames;
+		this.settings = ScanOptions.sessionSettings();
+	}
+
+	@Override
+	public void evaluate(VectorizedRowBatch batch) {
+		if (childExpressions != null) {
+			evaluateChildren(batch);
+		}
+		BytesColumnVector input = (BytesColumnVector) batch.cols[colNum];
+		int[] sel = batch.selected;
+		int n = batch.size;
+		if (n == 0) {
+			return;
+		}
+		if (scanner == null) {
+			scanner = SensitiveVectorExpression.newScanner(finderNames, settings);
+		}
+		if (input.isRepeating) {
+			if ((!input.noNulls && input.isNull[0])
+					|| !scanner.matches(input.vector[0], input.start[0], input.length[0])) {
+				batch.size = 0;
+			}
+			return;
+		}
+		int newSize = 0;
+		for (int j = 0; j < n; j++) {
+			int i = batch.selectedInUse ? sel[j] : j;
+			if ((input.noNulls || !input.isNull[i])
+					&& scanner.matches(input.vector[i], input.start[i], input.length[i])) {
+				sel[newSize++] = i;
+			}
+		}
+		if (!batch.selectedInUse && newSize < n) {
+			batch.selectedInUse = true;
+		}
+		batch.size = newSize;
+	}
+
+	public int getColNum() {
+		return colNum;
+	}
+
+	@Override
+	public int getOutputColumn() {
+		return -1;
+	}
+
+	@Override
+	public String getOutputType() {
+		return "boolean";
+	}
+
+	@Override
+	public VectorExpressionDescriptor.Descriptor getDescriptor() {
+		return SensitiveVectorExpression.descriptor(VectorExpressionDescriptor.Mode.FILTER, false);
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import io.dataapps.chlorine.finder.CompositeFinder;
+import io.dataapps.chlorine.finder.Finder;
+import io.dataapps.chlorine.pattern.CompositeCreditCardFinder;
+import io.dataapps.chlorine.pattern.RegexFinder;
+
+/**
+ * Finders as the regexes they are made of, for matching them over something
+ * else than a whole String: the windows of {@link WindowedScanner} or the
+ * bytes of a Text in {@link TextMatcher}. Running the parts of a finder one
+ * after the other, and adding up what they accept, finds what the finder
+ * finds.
+ */
+class FinderParts {
+	static final Log LOG = LogFactory.getLog(FinderParts.class);
+
+	/** the parts of a finder which is not made of regexes */
+	static final RegexFinder[] NOT_REGEX = new RegexFinder[0];
+
+	private static final Map<Finder, RegexFinder[]> PARTS =
+			Collections.synchronizedMap(new IdentityHashMap<Finder, RegexFinder[]>());
+
+	private FinderParts() {
+	}
+
+	/**
+	 * @return the regex finders finder is made of, in the order in which
+	 * their matches are listed, or none if it cannot be matched in windows.
+	 */
+	static RegexFinder[] of(Finder finder) {
+		RegexFinder[] parts = PARTS.get(finder);
+		if (parts == null) {
+			List<RegexFinder> found = new ArrayList<>();
+			parts = collectParts(finder, found) ? found.toArray(new RegexFinder[found.size()]) : NOT_REGEX;
+			PARTS.put(finder, parts);
+		}
+		return parts;
+	}
+
+	private static boolean collectParts(Finder finder, List<RegexFinder> parts) {
+		if (finder instanceof RegexFinder) {
+			parts.add((RegexFinder) finder);
+			return true;
+		}
+		if (finder instanceof CompositeFinder) {
+			for (Finder child : ((CompositeFinder) finder).getFinders()) {
+				if (!collectParts(child, parts)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (finder.getClass() == CompositeCreditCardFinder.class) {
+			// its card finders are not exposed
+			try {
+				Field field = CompositeCreditCardFinder.class.getDeclaredField("compositeFinder");
+				field.setAccessible(true);
+				return collectParts((Finder) field.get(finder), parts);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				LOG.warn("Scanning " + finder.getName() + " over whole values: " + e);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds what part makes of the current match to found, the way its find()
+	 * would over the whole value.
+	 */
+	static List<String> accept(RegexFinder part, Matcher matcher, List<String> found) {
+		if (found == null) {
+			found = new ArrayList<>();
+		}
+		String match = matcher.group();
+		if (part.getClass() == RegexFinder.class) {
+			found.add(removeCommas(match).trim());
+		} else {
+			// subclasses such as CreditCardFinder trim and check their matches,
+			// which they find again in the text of the match
+			found.addAll(part.find(match));
+		}
+		return found;
+	}
+
+	/**
+	 * Same as RegexFinder.removeCommas, which is not visible.
+	 */
+	static String removeCommas(String match) {
+		if (match.endsWith(",")) {
+			match = match.substring(0, match.length() - 1);
+		}
+		if (match.startsWith(",")) {
+			match = match.substring(1);
+		}
+		return match;
+	}
+
+}
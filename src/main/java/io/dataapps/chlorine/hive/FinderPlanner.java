@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.BaseCharTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.DecimalTypeInfo;
+
+import io.dataapps.chlorine.finder.Finder;
+
+/**
+ * Decides, per Hive primitive type, which finders can possibly match a value
+ * of that type. The text forms of BOOLEAN, DATE, TIMESTAMP and interval
+ * values never hold what the built-in finders look for, so they only get
+ * the finders whose profile is unknown, such as those of a finder file; VOID
+ * columns get no finder at all and are not scanned.
+ */
+public class FinderPlanner {
+
+	static final Finder[] NO_FINDERS = new Finder[0];
+
+	private final Finder[] finders;
+	private final FinderProfile[] profiles;
+	// plans already made, so that columns with the same finders share one
+	private final Map<List<Finder>, Finder[]> plans = new HashMap<>();
+
+	public FinderPlanner(List<Finder> finders) {
+		this.finders = finders.toArray(new Finder[finders.size()]);
+		this.profiles = new FinderProfile[this.finders.length];
+		for (int i = 0; i < this.finders.length; i++) {
+			profiles[i] = FinderProfile.of(this.finders[i]);
+		}
+	}
+
+	/**
+	 * @return true if names lists at least one finder and each name is the
+	 * name of one of finders, not case sensitive.
+	 */
+	public static boolean names(List<Finder> finders, String names) {
+		boolean any = false;
+		for (String name : names.split(",")) {
+			name = name.trim();
+			if (name.isEmpty()) {
+				continue;
+			}
+			boolean known = false;
+			for (Finder finder : finders) {
+				known |= finder.getName().equalsIgnoreCase(name);
+			}
+			if (!known) {
+				return false;
+			}
+			any = true;
+		}
+		return any;
+	}
+
+	/**
+	 * Picks the finders named in a comma separated list such as
+	 * <code>Email,SSN-dashes</code>. Names are not case sensitive.
+	 */
+	public static List<Finder> select(List<Finder> finders, String names)
+			throws UDFArgumentException {
+		List<Finder> selected = new ArrayList<>();
+		for (String name : names.split(",")) {
+			name = name.trim();
+			if (name.isEmpty()) {
+				continue;
+			}
+			Finder match = null;
+			for (Finder finder : finders) {
+				if (finder.getName().equalsIgnoreCase(name)) {
+					match = finder;
+					break;
+				}
+			}
+			if (match == null) {
+				List<String> available = new ArrayList<>();
+				for (Finder finder : finders) {
+					available.add(finder.getName());
+				}
+				throw new UDFArgumentException("Unknown finder '" + name
+						+ "', available finders are " + available);
+			}
+			if (!selected.contains(match)) {
+				selected.add(match);
+			}
+		}
+		return selected;
+	}
+
+	public Finder[] getFinders() {
+		return finders;
+	}
+
+	/**
+	 * @return the finders to run on values of the given type, an empty array
+	 * if values of this type need not be scanned.
+	 */
+	public Finder[] plan(PrimitiveObjectInspector insp) {
+		switch (insp.getPrimitiveCategory()) {
+		case STRING:
+		case BINARY:
+			return plan(Integer.MAX_VALUE, false);
+		case VARCHAR:
+		case CHAR:
+			return plan(((BaseCharTypeInfo) insp.getTypeInfo()).getLength(), false);
+		case BYTE:
+			return plan(4, true);
+		case SHORT:
+			return plan(6, true);
+		case INT:
+			return plan(11, true);
+		case LONG:
+			return plan(20, true);
+		case DECIMAL:
+			// digits, a sign and a decimal point
+			return plan(((DecimalTypeInfo) insp.getTypeInfo()).precision() + 2, true);
+		case FLOAT:
+		case DOUBLE:
+			// as Double.toString() writes them, exponent included
+			return plan(24, true);
+		case VOID:
+			return NO_FINDERS;
+		default:
+			// BOOLEAN, DATE, TIMESTAMP and intervals
+			return planUnprofiled();
+		}
+	}
+
+	/**
+	 * @return finders without finder, or finders itself if it is not there.
+	 */
+	static Finder[] without(Finder[] finders, Finder finder) {
+		for (int i = 0; i < finders.length; i++) {
+			if (finders[i] == finder) {
+				Finder[] remaining = new Finder[finders.length - 1];
+				System.arraycopy(finders, 0, remaining, 0, i);
+				System.arraycopy(finders, i + 1, remaining, i, remaining.length - i);
+				return remaining;
+			}
+		}
+		return finders;
+	}
+
+	private Finder[] plan(int maxLength, boolean numeric) {
+		List<Finder> planned = new ArrayList<>();
+		for (int i = 0; i < finders.length; i++) {
+			if (profiles[i].getMinLength() > maxLength) {
+				continue;
+			}
+			if (numeric && !profiles[i].matchesNumbers()) {
+				continue;
+			}
+			planned.add(finders[i]);
+		}
+		return share(planned);
+	}
+
+	/**
+	 * @return the finders not known to this planner, which may match anything.
+	 */
+	private Finder[] planUnprofiled() {
+		List<Finder> planned = new ArrayList<>();
+		for (int i = 0; i < finders.length; i++) {
+			if (profiles[i] == FinderProfile.UNKNOWN) {
+				planned.add(finders[i]);
+			}
+		}
+		return share(planned);
+	}
+
+	private Finder[] share(List<Finder> planned) {
+		Finder[] plan = plans.get(planned);
+		if (plan == null) {
+			plan = planned.toArray(new Finder[planned.size()]);
+			plans.put(planned, plan);
+		}
+		return plan;
+	}
+
+}
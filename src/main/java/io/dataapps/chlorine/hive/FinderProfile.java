@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.dataapps.chlorine.finder.Finder;
+
+/**
+ * What a finder is able to match, as far as scan planning is concerned: the
+ * length of the shortest value it can find, whether it can match the text
+ * form of a number, and what any value it finds must contain, which the
+ * {@link Prefilter} checks before running it. Requirements are derived from
+ * the finder's regex and must hold for every value it can match.
+ *
+ * Profiles are known for the finders shipped with chlorine-finder, and for
+ * {@link KnownValueFinder}s. Any other finder is assumed to be able to match
+ * anything.
+ */
+public class FinderProfile {
+
+	static final FinderProfile UNKNOWN = new FinderProfile(0, true);
+
+	private static final Map<String, FinderProfile> DEFAULT_PROFILES = new HashMap<>();
+	static {
+		DEFAULT_PROFILES.put("Email", new FinderProfile(6, false)
+				.requireMarks(Prefilter.AT_THEN_DOT));
+		// digits only, the shortest card is a 14 digit Diners Club number
+		DEFAULT_PROFILES.put("Credit Card", new FinderProfile(14, true)
+				.requireDigitRun(14));
+		DEFAULT_PROFILES.put("US Phone#Formatted", new FinderProfile(12, false)
+				.requireDigitRun(10));
+		DEFAULT_PROFILES.put("IPV4", new FinderProfile(7, false)
+				.requireDottedGroups(4));
+		DEFAULT_PROFILES.put("IPV6", new FinderProfile(2, false)
+				.requireMarks(Prefilter.COLON));
+		DEFAULT_PROFILES.put("Street Address", new FinderProfile(6, false)
+				.requireDigits(1).requireSpaces(2));
+		DEFAULT_PROFILES.put("SSN-spaces", new FinderProfile(11, false)
+				.requireDigitRun(9).requireSpaces(2));
+		DEFAULT_PROFILES.put("SSN-dashes", new FinderProfile(11, false)
+				.requireDigitRun(9));
+		DEFAULT_PROFILES.put("ZipCode", new FinderProfile(5, true)
+				.requireDigits(5));
+		// scheme:// or www. and ftp.
+		DEFAULT_PROFILES.put("URL", new FinderProfile(5, false)
+				.requireMarks(Prefilter.COLON | Prefilter.DOT));
+	}
+
+	private final int minLength;
+	private final boolean matchesNumbers;
+	private int minDigitRun;
+	private int minDigits;
+	private int minDottedGroups;
+	private int minSpaces;
+	private int marks;
+
+	FinderProfile(int minLength, boolean matchesNumbers) {
+		this.minLength = minLength;
+		this.matchesNumbers = matchesNumbers;
+	}
+
+	private FinderProfile requireDigitRun(int digits) {
+		minDigitRun = digits;
+		return this;
+	}
+
+	private FinderProfile requireDigits(int digits) {
+		minDigits = digits;
+		return this;
+	}
+
+	private FinderProfile requireDottedGroups(int groups) {
+		minDottedGroups = groups;
+		return this;
+	}
+
+	private FinderProfile requireSpaces(int spaces) {
+		minSpaces = spaces;
+		return this;
+	}
+
+	private FinderProfile requireMarks(int marks) {
+		this.marks = marks;
+		return this;
+	}
+
+	public static FinderProfile of(Finder finder) {
+		if (finder instanceof KnownValueFinder) {
+			return ((KnownValueFinder) finder).getProfile();
+		}
+		FinderProfile profile = DEFAULT_PROFILES.get(finder.getName());
+		return profile == null ? UNKNOWN : profile;
+	}
+
+	/**
+	 * @return the number of characters of the shortest value the finder can report.
+	 */
+	public int getMinLength() {
+		return minLength;
+	}
+
+	/**
+	 * @return true if the finder can match a value made of digits, a sign and a
+	 * decimal point only.
+	 */
+	public boolean matchesNumbers() {
+		return matchesNumbers;
+	}
+
+	/**
+	 * @return the number of digits a value must have in one run, where up to
+	 * 2 separators (whitespace, '-', '.' or ')') may stand between digits.
+	 */
+	public int getMinDigitRun() {
+		return minDigitRun;
+	}
+
+	/**
+	 * @return the number of digits a value must have in a row.
+	 */
+	public int getMinDigits() {
+		return minDigits;
+	}
+
+	/**
+	 * @return the number of dot separated digit groups a value must have in a
+	 * row, 4 for an IPv4 address.
+	 */
+	public int getMinDottedGroups() {
+		return minDottedGroups;
+	}
+
+	/**
+	 * @return the number of whitespace characters a value must have.
+	 */
+	public int getMinSpaces() {
+		return minSpaces;
+	}
+
+	/**
+	 * @return the {@link Prefilter} marks a value must have at least one of, 0
+	 * if none is needed.
+	 */
+	public int getMarks() {
+		return marks;
+	}
+
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+
+import io.dataapps.chlorine.finder.Finder;
+import io.dataapps.chlorine.finder.FinderEngine;
+
+/**
+ * The finder engines of the JVM, one per finder configuration: the built-in
+ * finders, or a finder definition file with or without them, and the
+ * dictionaries of known values run along with them. An engine is
+ * built by the first function that needs it and reused by every later one,
+ * so that reused containers and LLAP daemons compile the patterns once.
+ * The length and modification time of its files are checked on each lookup,
+ * and an engine is built again when one of them changed at the same path.
+ *
+ * The built-in finders only hold compiled patterns and are shared by all the
+ * threads. Custom finder classes may not be thread safe, in which case
+ * {@link ScanOptions#FINDERS_PER_THREAD} gives each thread its own engines.
+ */
+public class FinderRegistry {
+	static final Log LOG = LogFactory.getLog(FinderRegistry.class);
+
+	/**
+	 * The finders one function got from the registry.
+	 */
+	public static class Lookup {
+		private final List<Finder> finders;
+		private final boolean built;
+		private final long buildNanos;
+
+		Lookup(List<Finder> finders, boolean built, long buildNanos) {
+			this.finders = finders;
+			this.built = built;
+			this.buildNanos = buildNanos;
+		}
+
+		public List<Finder> getFinders() {
+			return finders;
+		}
+
+		/**
+		 * @return the lookup of the finders named in names, see
+		 * {@link FinderPlanner#select(List, String)}.
+		 */
+		Lookup select(String names) throws UDFArgumentException {
+			return new Lookup(FinderPlanner.select(finders, names), built, buildNanos);
+		}
+
+		/**
+		 * @return true if the engine was built for this lookup, false if an
+		 * existing one was reused.
+		 */
+		public boolean isBuilt() {
+			return built;
+		}
+
+		/**
+		 * @return what building the engine took, and what a reuse saved.
+		 */
+		public long getBuildNanos() {
+			return buildNanos;
+		}
+	}
+
+	/**
+	 * An engine, built on first use.
+	 */
+	static class Engine {
+		private final String file;
+		private final boolean defaults;
+		private final String[] knownValues;
+		// the versions of the files the engine is built from
+		private final String stamp;
+		private volatile List<Finder> finders;
+		private long buildNanos;
+
+		Engine(String file, boolean defaults, String[] knownValues, String stamp) {
+			this.file = file;
+			this.defaults = defaults;
+			this.knownValues = knownValues;
+			this.stamp = stamp;
+		}
+
+		/**
+		 * @return true if this call built the engine.
+		 */
+		synchronized boolean build(Configuration conf) throws UDFArgumentException {
+			if (finders != null) {
+				return false;
+			}
+			long start = System.nanoTime();
+			FinderEngine engine;
+			if (file == null) {
+				engine = new FinderEngine();
+			} else {
+				try (InputStream in = open(file, conf)) {
+					engine = new FinderEngine(in, defaults);
+				} catch (IOException e) {
+					throw new UDFArgumentException("Cannot read finders from " + file + ": " + e.getMessage());
+				}
+			}
+			List<Finder> built = engine.getFinders();
+			if (knownValues.length > 0) {
+				built = new ArrayList<>(built);
+				for (String dictionary : knownValues) {
+					built.add(openKnownValues(dictionary));
+				}
+			}
+			buildNanos = System.nanoTime() - start;
+			finders = Collections.unmodifiableList(built);
+			LOG.info(String.format(Locale.ROOT, "Built %d finders from %s in %.1f ms",
+					finders.size(), file == null ? "the defaults" : file, buildNanos / 1e6));
+			return true;
+		}
+	}
+
+	private static final ConcurrentMap<String, Engine> ENGINES = new ConcurrentHashMap<>();
+	private static final ThreadLocal<Map<String, Engine>> THREAD_ENGINES = new ThreadLocal<Map<String, Engine>>() {
+		@Override
+		protected Map<String, Engine> initialValue() {
+			return new HashMap<>();
+		}
+	};
+	private static final AtomicLong BUILDS = new AtomicLong();
+	private static final AtomicLong REUSES = new AtomicLong();
+	private static final AtomicLong SAVED_NANOS = new AtomicLong();
+
+	private FinderRegistry() {
+	}
+
+	/**
+	 * @return true if a finders argument names a finder definition file
+	 * rather than finders.
+	 */
+	public static boolean isFinderFile(String finders) {
+		return finders != null && finders.trim().toLowerCase(Locale.ROOT).endsWith(".xml");
+	}
+
+	/**
+	 * @param finders a finders argument: the names of the finders to run, a
+	 * finder definition file, or null for the finders of the options.
+	 */
+	public static Lookup lookup(String finders, ScanOptions options) throws UDFArgumentException {
+		String file = isFinderFile(finders) ? finders.trim() : options.findersFile;
+		Engine engine = getEngine(file, file == null || options.findersDefaults, options.findersKnownValues,
+				options.findersPerThread, options.conf);
+		boolean built = engine.build(options.conf);
+		if (built) {
+			BUILDS.incrementAndGet();
+		} else {
+			REUSES.incrementAndGet();
+			SAVED_NANOS.addAndGet(engine.buildNanos);
+		}
+		List<Finder> found = engine.finders;
+		if (finders != null && !isFinderFile(finders)) {
+			found = FinderPlanner.select(found, finders);
+		}
+		return new Lookup(found, built, engine.buildNanos);
+	}
+
+	public static Lookup lookup(ScanOptions options) throws UDFArgumentException {
+		return lookup(null, options);
+	}
+
+	private static Engine getEngine(String file, boolean defaults, String[] knownValues, boolean perThread,
+			Configuration conf) {
+		String key = (file == null ? "" : defaults + ":" + file) + Arrays.toString(knownValues);
+		StringBuilder stamp = new StringBuilder();
+		if (file != null) {
+			stamp.append(stamp(file, conf));
+		}
+		for (String dictionary : knownValues) {
+			stamp.append(',').append(stamp(dictionary, conf));
+		}
+		Map<String, Engine> engines = perThread ? THREAD_ENGINES.get() : ENGINES;
+		Engine engine = engines.get(key);
+		while (engine == null || !engine.stamp.equals(stamp.toString())) {
+			Engine created = new Engine(file, defaults, knownValues, stamp.toString());
+			if (perThread) {
+				engines.put(key, created);
+				return created;
+			}
+			if (engine == null ? ENGINES.putIfAbsent(key, created) == null : ENGINES.replace(key, engine, created)) {
+				if (engine != null) {
+					LOG.info("The files of " + key + " changed, building its finders again");
+				}
+				return created;
+			}
+			engine = ENGINES.get(key);
+		}
+		return engine;
+	}
+
+	/**
+	 * @return the length and modification time of file, empty if it cannot
+	 * be found, which building the engine reports.
+	 */
+	private static String stamp(String file, Configuration conf) {
+		File local = new File(file);
+		if (local.isFile()) {
+			return local.length() + "@" + local.lastModified();
+		}
+		try {
+			Path path = new Path(file);
+			FileStatus status = path.getFileSystem(conf).getFileStatus(path);
+			return status.getLen() + "@" + status.getModificationTime();
+		} catch (IOException | IllegalArgumentException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * Opens a file shipped with the job, such as one added with ADD FILE,
+	 * or else a path of a Hadoop file system.
+	 */
+	private static InputStream open(String file, Configuration conf) throws IOException {
+		File local = new File(file);
+		if (local.isFile()) {
+			return new FileInputStream(local);
+		}
+		Path path = new Path(file);
+		return path.getFileSystem(conf).open(path);
+	}
+
+	/**
+	 * Maps a dictionary of known values, which has to be a local file, such
+	 * as one added with ADD FILE, for its pages to be shared.
+	 */
+	private static Finder openKnownValues(String dictionary) throws UDFArgumentException {
+		File local = new File(dictionary);
+		if (!local.isFile()) {
+			throw new UDFArgumentException("Known values " + dictionary + " are not a local file, add them with ADD FILE");
+		}
+		try {
+			KnownValueFinder finder = KnownValueFinder.open(local);
+			LOG.info("Mapped " + finder.getCount() + " known values of " + finder.getName() + " from " + dictionary);
+			return finder;
+		} catch (IOException e) {
+			throw new UDFArgumentException("Cannot map known values from " + dictionary + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the number of engines built by the JVM.
+	 */
+	public static long getBuilds() {
+		return BUILDS.get();
+	}
+
+	/**
+	 * @return the number of lookups served by an existing engine.
+	 */
+	public static long getReuses() {
+		return REUSES.get();
+	}
+
+	/**
+	 * @return the build time the reuses saved.
+	 */
+	public static long getSavedNanos() {
+		return SAVED_NANOS.get();
+	}
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import org.apache.hadoop.io.Text;
+
+import io.dataapps.chlorine.finder.Finder;
+import io.dataapps.chlorine.pattern.RegexFinder;
+
+/**
+ * Scans the short primitive values of a row together, for tables of many
+ * narrow columns where setting up each finder for each value costs more
+ * than the matching itself. The values are decoded one after the other into
+ * one buffer, with a table of where each of them starts and ends, and each
+ * finder is set up once per row and run over the values it is admitted for.
+ *
+ * A finder runs over the region of the buffer of each value, with opaque and
+ * anchoring bounds: its matches cannot run over into the next value, and
+ * anchors, boundaries and lookarounds see the edges of the value as they
+ * would in the value alone. What is found is exactly what scanning each
+ * value would find. A single pass over the whole buffer was slower: the
+ * regex engine skips values shorter than the shortest match of a pattern
+ * without looking at them, which a pass over the row cannot do.
+ */
+public class FusedScanner {
+
+	/**
+	 * Read-only chars of the buffer, faster to match than a CharBuffer.
+	 */
+	static class CharArraySequence implements CharSequence {
+		private char[] chars;
+		private int start;
+		private int length;
+
+		CharArraySequence set(char[] chars, int start, int length) {
+			this.chars = chars;
+			this.start = start;
+			this.length = length;
+			return this;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return chars[start + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			return new CharArraySequence().set(chars, start + from, to - from);
+		}
+
+		@Override
+		public String toString() {
+			return new String(chars, start, length);
+		}
+	}
+
+	private final Finder[] finders;
+	private final RegexFinder[][] parts;
+	// per finder, matchers of its parts over the buffer, null if not regex based
+	private final Matcher[][] matchers;
+	// per column, the plan it was last added with, and where each finder is in it
+	private final Finder[][] plans;
+	private final int[][] slots;
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private char[] chars = new char[1024];
+	private int length;
+	private final CharArraySequence buffer = new CharArraySequence();
+
+	// the values of the row
+	private int count;
+	private int[] columns = new int[16];
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private boolean[][] admitted = new boolean[16][];
+	private List<String>[][] found = newFound(16);
+
+	// the rows in which each finder was last admitted for a value
+	private final int[] wanted;
+	private int row;
+
+	/**
+	 * @param finders every finder the plans of the values are made of.
+	 * @param columns the number of columns values are added for.
+	 */
+	public FusedScanner(List<Finder> finders, int columns) {
+		this.finders = finders.toArray(new Finder[finders.size()]);
+		this.parts = new RegexFinder[this.finders.length][];
+		this.matchers = new Matcher[this.finders.length][];
+		for (int g = 0; g < this.finders.length; g++) {
+			parts[g] = FinderParts.of(this.finders[g]);
+			if (parts[g] != FinderParts.NOT_REGEX) {
+				matchers[g] = new Matcher[parts[g].length];
+				for (int p = 0; p < parts[g].length; p++) {
+					matchers[g][p] = parts[g][p].getPattern().matcher("");
+				}
+			}
+		}
+		this.plans = new Finder[columns][];
+		this.slots = new int[columns][];
+		this.wanted = new int[this.finders.length];
+	}
+
+	/**
+	 * Starts a row.
+	 */
+	public void reset() {
+		for (int v = 0; v < count; v++) {
+			Arrays.fill(found[v], null);
+		}
+		count = 0;
+		length = 0;
+		row++;
+	}
+
+	/**
+	 * Adds a value of the row.
+	 * @param column the column of the value, below the number of columns.
+	 * @param plan the finders to run on the value.
+	 * @param prefilter the finders it admitted for value, all if null.
+	 * @return the index of the value in the row, for {@link #getFound(int)}.
+	 */
+	public int add(int column, Text value, Finder[] plan, Prefilter prefilter) {
+		if (plans[column] != plan) {
+			plans[column] = plan;
+			slots[column] = slots(plan);
+		}
+		if (count == columns.length) {
+			int size = count * 2;
+			columns = Arrays.copyOf(columns, size);
+			starts = Arrays.copyOf(starts, size);
+			ends = Arrays.copyOf(ends, size);
+			admitted = Arrays.copyOf(admitted, size);
+			found = Arrays.copyOf(found, size);
+		}
+		int v = count++;
+		columns[v] = column;
+		if (admitted[v] == null || admitted[v].length < plan.length) {
+			admitted[v] = new boolean[plan.length];
+			found[v] = RowScanner.newResults(plan.length);
+		}
+		for (int k = 0; k < plan.length; k++) {
+			admitted[v][k] = prefilter == null || prefilter.admitted(k);
+			if (admitted[v][k]) {
+				wanted[slots[column][finders.length + k]] = row;
+			}
+		}
+		starts[v] = length;
+		append(value.getBytes(), value.getLength());
+		ends[v] = length;
+		return v;
+	}
+
+	/**
+	 * @return for each finder, where it is in plan or -1, followed by the
+	 * index of each finder of plan in finders.
+	 */
+	private int[] slots(Finder[] plan) {
+		int[] slots = new int[finders.length + plan.length];
+		Arrays.fill(slots, 0, finders.length, -1);
+		for (int k = 0; k < plan.length; k++) {
+			int g = 0;
+			while (g < finders.length && finders[g] != plan[k]) {
+				g++;
+			}
+			if (g == finders.length) {
+				throw new IllegalArgumentException(plan[k].getName() + " is not one of the finders of the scanner");
+			}
+			slots[g] = k;
+			slots[finders.length + k] = g;
+		}
+		return slots;
+	}
+
+	/**
+	 * Decodes bytes after the values already in chars, as Text.toString()
+	 * would.
+	 */
+	private void append(byte[] bytes, int size) {
+		// UTF-8 never takes fewer bytes than UTF-16 chars, replacements included
+		if (length + size > chars.length) {
+			chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + size));
+		}
+		for (int i = 0; i < size; i++) {
+			if (bytes[i] < 0) {
+				// decode the whole value over the ASCII chars copied so far
+				CharBuffer out = CharBuffer.wrap(chars, length - i, chars.length - length + i);
+				decoder.reset();
+				decoder.decode(ByteBuffer.wrap(bytes, 0, size), out, true);
+				decoder.flush(out);
+				length = out.position();
+				return;
+			}
+			chars[length++] = (char) bytes[i];
+		}
+	}
+
+	/**
+	 * Runs each finder over the values of the row it is admitted for.
+	 * @param profile times the finders if not null, once per row each.
+	 */
+	public void scan(ScanProfile profile) {
+		buffer.set(chars, 0, length);
+		for (int g = 0; g < finders.length; g++) {
+			if (wanted[g] != row) {
+				continue;
+			}
+			long start = profile == null ? 0 : System.nanoTime();
+			if (matchers[g] != null) {
+				for (Matcher matcher : matchers[g]) {
+					matcher.reset(buffer);
+				}
+			}
+			int values = 0;
+			int matches = 0;
+			for (int v = 0; v < count; v++) {
+				int k = slots[columns[v]][g];
+				if (k < 0 || !admitted[v][k]) {
+					continue;
+				}
+				List<String> result = find(g, v);
+				values++;
+				if (result != null) {
+					found[v][k] = result;
+					matches += result.size();
+				}
+			}
+			if (profile != null) {
+				profile.finderRun(finders[g], System.nanoTime() - start, values, matches);
+			}
+		}
+	}
+
+	/**
+	 * @return what finder g finds in value v, null if nothing.
+	 */
+	private List<String> find(int g, int v) {
+		if (matchers[g] == null) {
+			List<String> result = finders[g] instanceof KnownValueFinder
+					? ((KnownValueFinder) finders[g]).find(buffer.subSequence(starts[v], ends[v]))
+					: finders[g].find(new String(chars, starts[v], ends[v] - starts[v]));
+			return result.isEmpty() ? null : result;
+		}
+		List<String> found = null;
+		for (int p = 0; p < matchers[g].length; p++) {
+			Matcher matcher = matchers[g][p];
+			// opaque and anchoring bounds, the defaults, make the region the whole value
+			matcher.region(starts[v], ends[v]);
+			while (matcher.find()) {
+				found = FinderParts.accept(parts[g][p], matcher, found);
+			}
+		}
+		// subclasses such as CreditCardFinder may reject what the regex found
+		return found == null || found.isEmpty() ? null : found;
+	}
+
+	/**
+	 * @return what each finder of the plan of value v found in it, null
+	 * where it found nothing or did not run.
+	 */
+	public List<String>[] getFound(int v) {
+		return found[v];
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static List<String>[][] newFound(int size) {
+		return new List[size][];
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedExpressions;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BooleanWritable;
+
+/**
+ * <code>has_sensitive(col[, finders])</code>: true if any finder finds
+ * something in the value. Usable in WHERE clauses of vectorized queries,
+ * vectorized when registered as a permanent function.
+ */
+@VectorizedExpressions({VectorHasSensitive.class, VectorHasSensitive.WithFinders.class,
+		FilterHasSensitive.class, FilterHasSensitive.WithFinders.class})
+public class HasSensitiveUDF extends SensitiveUDF {
+
+	private final BooleanWritable result = new BooleanWritable();
+
+	@Override
+	protected String getFuncName() {
+		return "has_sensitive";
+	}
+
+	@Override
+	protected ObjectInspector getOutputInspector() {
+		return PrimitiveObjectInspectorFactory.writableBooleanObjectInspector;
+	}
+
+	@Override
+	protected Object evaluate(SliceScanner scanner, byte[] bytes, int start, int length) {
+		result.set(scanner.matches(bytes, start, length));
+		return result;
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Minimal HyperLogLog distinct counter over 64 bit hashes, with 2^11
+ * one-byte registers (about 2.3% standard error). Two counters are merged by
+ * keeping the larger register.
+ */
+public class HyperLogLog {
+
+	private static final int P = 11;
+	private static final int M = 1 << P;
+	private static final double ALPHA = 0.7213 / (1 + 1.079 / M);
+
+	private final byte[] registers = new byte[M];
+
+	public void add(long hash) {
+		int index = (int) (hash >>> (64 - P));
+		// leading zeros of the remaining bits, plus one
+		int rank = Long.numberOfLeadingZeros((hash << P) | (1L << (P - 1))) + 1;
+		if (rank > registers[index]) {
+			registers[index] = (byte) rank;
+		}
+	}
+
+	public void merge(HyperLogLog other) {
+		for (int i = 0; i < M; i++) {
+			if (other.registers[i] > registers[i]) {
+				registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	public long estimate() {
+		double sum = 0;
+		int zeros = 0;
+		for (int i = 0; i < M; i++) {
+			sum += 1.0 / (1L << registers[i]);
+			if (registers[i] == 0) {
+				zeros++;
+			}
+		}
+		double estimate = ALPHA * M * M / sum;
+		if (estimate <= 2.5 * M && zeros > 0) {
+			// linear counting is more accurate for small cardinalities
+			estimate = M * Math.log((double) M / zeros);
+		}
+		return Math.round(estimate);
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.write(registers);
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		in.readFully(registers);
+	}
+
+}
@@ -16,21 +16,32 @@
 package io.dataapps.chlorine.hive;
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.common.type.HiveDecimal;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters.Converter;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
@@ -42,31 +53,181 @@ import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspe
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.TimestampObjectInspector;
 import org.apache.hadoop.io.Text;
+import org.codehaus.jackson.JsonEncoding;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.JsonGenerator;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 
+import io.dataapps.chlorine.finder.Finder;
+
 public class JsonConverter  implements Converter {
 	static final Log LOG = LogFactory.getLog(JsonConverter.class);
 
     private InspectorHandle inspHandle;
+    private final FinderPlanner planner;
     private static JsonFactory jsonFactory = new JsonFactory(); // threadsafe
 
+    // reused across rows; the Text handed out by convert() is overwritten by the next call
+    private final OutputBuffer buffer = new OutputBuffer();
+    private final Text text = new Text();
+    private JsonGenerator gen;
+    private final StringBuilder leafPath = new StringBuilder();
+
+    /**
+     * Growable byte sink that exposes its backing array, so the generated
+     * UTF-8 can be copied into the reused Text without an intermediate copy.
+     */
+    private static class OutputBuffer extends OutputStream {
+        private byte[] data = new byte[256];
+        private int length;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(length + 1);
+            data[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(length + len);
+            System.arraycopy(b, off, data, length, len);
+            length += len;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > data.length) {
+                byte[] newData = new byte[Math.max(capacity, data.length << 1)];
+                System.arraycopy(data, 0, newData, 0, length);
+                data = newData;
+            }
+        }
+
+        public void reset() {
+            length = 0;
+        }
+    }
+
+
+    /**
+     * Receives the scannable leaves of a complex value together with their
+     * nested path, e.g. <code>3.address.lines[1]</code>, and the finders planned
+     * for the leaf type. The path is only valid for the duration of the call.
+     */
+    public interface LeafVisitor {
+        public void visitLeaf(CharSequence path, String value, Finder[] finders) throws HiveException;
+    }
+
+    /**
+     * Redacts the string leaves of a complex value, see {@link JsonConverter#redact}.
+     */
+    public interface LeafRedactor {
+        /**
+         * @return value itself if the finders found nothing in it, or else a
+         * new Text with what they found masked.
+         */
+        public Text redactLeaf(Text value, Finder[] finders) throws HiveException;
+    }
 
     private interface InspectorHandle {
         abstract public void generateJson(JsonGenerator gen, Object obj) throws JsonGenerationException, IOException;
+
+        /** false when no leaf below this handle has a finder planned */
+        abstract public boolean hasLeaves();
+
+        abstract public void scanLeaves(Object obj, StringBuilder path, LeafVisitor visitor) throws HiveException;
+
+        abstract public void collectFinders(Set<Finder> finders);
+
+        /** drops finder from the leaves below this handle, pruning subtrees left without any */
+        abstract public void removeFinder(Finder finder);
+
+        /** a standard copy of obj, of the redacted inspector, with its text leaves redacted */
+        abstract public Object redact(Object obj, LeafRedactor redactor) throws HiveException;
+
+        abstract public ObjectInspector getRedactedInspector();
+    }
+
+    /**
+     * Base for the primitive handles. A primitive is a leaf when the planner
+     * has at least one finder for its type, and is scanned in its text form.
+     */
+    private abstract class PrimitiveInspectorHandle implements InspectorHandle {
+        PrimitiveObjectInspector primInspector;
+        Finder[] finders = FinderPlanner.NO_FINDERS;
+        private Converter textConverter;
+
+        @Override
+        public boolean hasLeaves() {
+            return finders.length > 0;
+        }
+
+        @Override
+        public void scanLeaves(Object obj, StringBuilder path, LeafVisitor visitor) throws HiveException {
+            if (obj != null && finders.length > 0) {
+                visitor.visitLeaf(path, primInspector.getPrimitiveJavaObject(obj).toString(), finders);
+            }
+        }
+
+        @Override
+        public void collectFinders(Set<Finder> found) {
+            found.addAll(Arrays.asList(finders));
+        }
+
+        @Override
+        public void removeFinder(Finder finder) {
+            finders = FinderPlanner.without(finders, finder);
+        }
+
+        /**
+         * STRING, VARCHAR and CHAR leaves are redacted, and come back as strings.
+         */
+        private boolean isText() {
+            PrimitiveCategory category = primInspector.getPrimitiveCategory();
+            return category == PrimitiveCategory.STRING || category == PrimitiveCategory.VARCHAR
+                    || category == PrimitiveCategory.CHAR;
+        }
+
+        @Override
+        public ObjectInspector getRedactedInspector() {
+            return isText() ? PrimitiveObjectInspectorFactory.writableStringObjectInspector
+                    : ObjectInspectorUtils.getStandardObjectInspector(primInspector, ObjectInspectorCopyOption.WRITABLE);
+        }
+
+        @Override
+        public Object redact(Object obj, LeafRedactor redactor) throws HiveException {
+            if (obj == null) {
+                return null;
+            }
+            if (!isText()) {
+                return ObjectInspectorUtils.copyToStandardObject(obj, primInspector, ObjectInspectorCopyOption.WRITABLE);
+            }
+            if (textConverter == null) {
+                textConverter = ObjectInspectorConverters.getConverter(primInspector,
+                        PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+            }
+            Text value = (Text) textConverter.convert(obj);
+            Text redacted = finders.length == 0 ? value : redactor.redactLeaf(value, finders);
+            // a converting converter hands out the same Text for every leaf
+            if (redacted == value && !(textConverter instanceof ObjectInspectorConverters.IdentityConverter)) {
+                return new Text(value);
+            }
+            return redacted;
+        }
     }
 
     private class MapInspectorHandle implements InspectorHandle {
         private MapObjectInspector mapInspector;
         private StringObjectInspector keyObjectInspector;
         private InspectorHandle valueInspector;
+        private boolean valueHasLeaves;
+        private Finder[] keyFinders;
 
 
         public MapInspectorHandle(MapObjectInspector mInsp) throws UDFArgumentException {
@@ -77,6 +238,8 @@ public class JsonConverter  implements Converter {
                 throw new UDFArgumentException("Only Maps with strings as keys can be converted to valid JSON");
             }
             valueInspector = generateInspectorHandle(mInsp.getMapValueObjectInspector());
+            valueHasLeaves = valueInspector.hasLeaves();
+            keyFinders = planner == null ? FinderPlanner.NO_FINDERS : planner.plan(keyObjectInspector);
         }
 
         @Override
@@ -97,22 +260,101 @@ public class JsonConverter  implements Converter {
             }
         }
 
+        @Override
+        public boolean hasLeaves() {
+            return keyFinders.length > 0 || valueHasLeaves;
+        }
+
+        @Override
+        public void collectFinders(Set<Finder> found) {
+            found.addAll(Arrays.asList(keyFinders));
+            valueInspector.collectFinders(found);
+        }
+
+        @Override
+        public void removeFinder(Finder finder) {
+            keyFinders = FinderPlanner.without(keyFinders, finder);
+            valueInspector.removeFinder(finder);
+            valueHasLeaves = valueInspector.hasLeaves();
+        }
+
+        @Override
+        public void scanLeaves(Object obj, StringBuilder path, LeafVisitor visitor) throws HiveException {
+            if (obj == null) {
+                return;
+            }
+            int mark = path.length();
+            for (Map.Entry<?, ?> entry : mapInspector.getMap(obj).entrySet()) {
+                String key = keyObjectInspector.getPrimitiveJavaObject(entry.getKey());
+                if (key == null) {
+                    continue;
+                }
+                // keys are reported at the path of their own entry
+                path.append('.').append(key);
+                if (keyFinders.length > 0) {
+                    visitor.visitLeaf(path, key, keyFinders);
+                }
+                if (valueHasLeaves) {
+                    valueInspector.scanLeaves(entry.getValue(), path, visitor);
+                }
+                path.setLength(mark);
+            }
+        }
+
+        @Override
+        public ObjectInspector getRedactedInspector() {
+            // keys are kept, so that entries stay distinct
+            return ObjectInspectorFactory.getStandardMapObjectInspector(
+                    ObjectInspectorUtils.getStandardObjectInspector(keyObjectInspector, ObjectInspectorCopyOption.WRITABLE),
+                    valueInspector.getRedactedInspector());
+        }
+
+        @Override
+        public Object redact(Object obj, LeafRedactor redactor) throws HiveException {
+            if (obj == null) {
+                return null;
+            }
+            Map<?, ?> map = mapInspector.getMap(obj);
+            Map<Object, Object> redacted = new LinkedHashMap<Object, Object>(map.size() * 4 / 3 + 1);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                redacted.put(ObjectInspectorUtils.copyToStandardObject(entry.getKey(), keyObjectInspector,
+                        ObjectInspectorCopyOption.WRITABLE), valueInspector.redact(entry.getValue(), redactor));
+            }
+            return redacted;
+        }
+
     }
 
     private class StructInspectorHandle implements InspectorHandle {
         private StructObjectInspector structInspector;
         private List<String> fieldNames;
         private List<InspectorHandle> fieldInspectorHandles;
+        private List<? extends StructField> fieldRefs;
+        // positions of the fields that have string leaves, others are pruned
+        private int[] leafFields;
 
         public StructInspectorHandle(StructObjectInspector insp) throws UDFArgumentException {
             structInspector = insp;
             List<? extends StructField> fieldList = insp.getAllStructFieldRefs();
+            this.fieldRefs = fieldList;
             this.fieldNames = new ArrayList<String>();
             this.fieldInspectorHandles = new ArrayList<InspectorHandle>();
             for (StructField sf : fieldList) {
                 fieldNames.add(sf.getFieldName());
                 fieldInspectorHandles.add(generateInspectorHandle(sf.getFieldObjectInspector()));
             }
+            findLeafFields();
+        }
+
+        private void findLeafFields() {
+            int count = 0;
+            int[] fields = new int[fieldInspectorHandles.size()];
+            for (int i = 0; i < fields.length; ++i) {
+                if (fieldInspectorHandles.get(i).hasLeaves()) {
+                    fields[count++] = i;
+                }
+            }
+            leafFields = Arrays.copyOf(fields, count);
         }
 
         @Override
@@ -133,6 +375,64 @@ public class JsonConverter  implements Converter {
             }
         }
 
+        @Override
+        public boolean hasLeaves() {
+            return leafFields.length > 0;
+        }
+
+        @Override
+        public void collectFinders(Set<Finder> found) {
+            for (int i : leafFields) {
+                fieldInspectorHandles.get(i).collectFinders(found);
+            }
+        }
+
+        @Override
+        public void removeFinder(Finder finder) {
+            for (int i : leafFields) {
+                fieldInspectorHandles.get(i).removeFinder(finder);
+            }
+            findLeafFields();
+        }
+
+        @Override
+        public void scanLeaves(Object obj, StringBuilder path, LeafVisitor visitor) throws HiveException {
+            if (obj == null) {
+                return;
+            }
+            int mark = path.length();
+            for (int i : leafFields) {
+                Object fieldObj = structInspector.getStructFieldData(obj, fieldRefs.get(i));
+                if (fieldObj != null) {
+                    path.append('.').append(fieldNames.get(i));
+                    fieldInspectorHandles.get(i).scanLeaves(fieldObj, path, visitor);
+                    path.setLength(mark);
+                }
+            }
+        }
+
+        @Override
+        public ObjectInspector getRedactedInspector() {
+            List<ObjectInspector> fieldInspectors = new ArrayList<ObjectInspector>();
+            for (InspectorHandle handle : fieldInspectorHandles) {
+                fieldInspectors.add(handle.getRedactedInspector());
+            }
+            return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldInspectors);
+        }
+
+        @Override
+        public Object redact(Object obj, LeafRedactor redactor) throws HiveException {
+            if (obj == null) {
+                return null;
+            }
+            List<Object> redacted = new ArrayList<Object>(fieldRefs.size());
+            for (int i = 0; i < fieldRefs.size(); ++i) {
+                Object fieldObj = structInspector.getStructFieldData(obj, fieldRefs.get(i));
+                redacted.add(fieldInspectorHandles.get(i).redact(fieldObj, redactor));
+            }
+            return redacted;
+        }
+
     }
 
     private class ArrayInspectorHandle implements InspectorHandle {
@@ -159,9 +459,59 @@ public class JsonConverter  implements Converter {
             }
         }
 
+        @Override
+        public boolean hasLeaves() {
+            return valueInspector.hasLeaves();
+        }
+
+        @Override
+        public void collectFinders(Set<Finder> found) {
+            valueInspector.collectFinders(found);
+        }
+
+        @Override
+        public void removeFinder(Finder finder) {
+            valueInspector.removeFinder(finder);
+        }
+
+        @Override
+        public void scanLeaves(Object obj, StringBuilder path, LeafVisitor visitor) throws HiveException {
+            if (obj == null) {
+                return;
+            }
+            int mark = path.length();
+            int size = arrayInspector.getListLength(obj);
+            for (int i = 0; i < size; i++) {
+                Object elem = arrayInspector.getListElement(obj, i);
+                if (elem != null) {
+                    path.append('[').append(i).append(']');
+                    valueInspector.scanLeaves(elem, path, visitor);
+                    path.setLength(mark);
+                }
+            }
+        }
+
+        @Override
+        public ObjectInspector getRedactedInspector() {
+            return ObjectInspectorFactory.getStandardListObjectInspector(valueInspector.getRedactedInspector());
+        }
+
+        @Override
+        public Object redact(Object obj, LeafRedactor redactor) throws HiveException {
+            if (obj == null) {
+                return null;
+            }
+            int size = arrayInspector.getListLength(obj);
+            List<Object> redacted = new ArrayList<Object>(size);
+            for (int i = 0; i < size; i++) {
+                redacted.add(valueInspector.redact(arrayInspector.getListElement(obj, i), redactor));
+            }
+            return redacted;
+        }
+
     }
 
-    private class StringInspectorHandle implements InspectorHandle {
+    private class StringInspectorHandle extends PrimitiveInspectorHandle {
         private StringObjectInspector strInspector;
 
 
@@ -181,7 +531,7 @@ public class JsonConverter  implements Converter {
 
     }
 
-    private class IntInspectorHandle implements InspectorHandle {
+    private class IntInspectorHandle extends PrimitiveInspectorHandle {
         private IntObjectInspector intInspector;
 
         public IntInspectorHandle(IntObjectInspector insp) {
@@ -199,7 +549,7 @@ public class JsonConverter  implements Converter {
         }
     }
 
-    private class DoubleInspectorHandle implements InspectorHandle {
+    private class DoubleInspectorHandle extends PrimitiveInspectorHandle {
         private DoubleObjectInspector dblInspector;
 
         public DoubleInspectorHandle(DoubleObjectInspector insp) {
@@ -217,7 +567,7 @@ public class JsonConverter  implements Converter {
         }
     }
 
-    private class LongInspectorHandle implements InspectorHandle {
+    private class LongInspectorHandle extends PrimitiveInspectorHandle {
         private LongObjectInspector longInspector;
 
         public LongInspectorHandle(LongObjectInspector insp) {
@@ -235,7 +585,7 @@ public class JsonConverter  implements Converter {
         }
     }
 
-    private class ShortInspectorHandle implements InspectorHandle {
+    private class ShortInspectorHandle extends PrimitiveInspectorHandle {
         private ShortObjectInspector shortInspector;
 
         public ShortInspectorHandle(ShortObjectInspector insp) {
@@ -253,7 +603,7 @@ public class JsonConverter  implements Converter {
         }
     }
 
-    private class ByteInspectorHandle implements InspectorHandle {
+    private class ByteInspectorHandle extends PrimitiveInspectorHandle {
         private ByteObjectInspector byteInspector;
 
         public ByteInspectorHandle(ByteObjectInspector insp) {
@@ -271,7 +621,7 @@ public class JsonConverter  implements Converter {
         }
     }
 
-    private class FloatInspectorHandle implements InspectorHandle {
+    private class FloatInspectorHandle extends PrimitiveInspectorHandle {
         private FloatObjectInspector floatInspector;
 
         public FloatInspectorHandle(FloatObjectInspector insp) {
@@ -289,7 +639,7 @@ public class JsonConverter  implements Converter {
         }
     }
 
-    private class BooleanInspectorHandle implements InspectorHandle {
+    private class BooleanInspectorHandle extends PrimitiveInspectorHandle {
         private BooleanObjectInspector boolInspector;
 
         public BooleanInspectorHandle(BooleanObjectInspector insp) {
@@ -307,7 +657,7 @@ public class JsonConverter  implements Converter {
         }
     }
 
-    private class BinaryInspectorHandle implements InspectorHandle {
+    private class BinaryInspectorHandle extends PrimitiveInspectorHandle {
         private BinaryObjectInspector binaryInspector;
 
         public BinaryInspectorHandle(BinaryObjectInspector insp) {
@@ -323,9 +673,21 @@ public class JsonConverter  implements Converter {
                 gen.writeBinary(bytes);
             }
         }
+
+        /**
+         * Scans the bytes as UTF-8 text, as top-level BINARY columns are,
+         * rather than the String of the array.
+         */
+        @Override
+        public void scanLeaves(Object obj, StringBuilder path, LeafVisitor visitor) throws HiveException {
+            if (obj != null && finders.length > 0) {
+                byte[] bytes = binaryInspector.getPrimitiveJavaObject(obj);
+                visitor.visitLeaf(path, new String(bytes, StandardCharsets.UTF_8), finders);
+            }
+        }
     }
 
-    private class TimestampInspectorHandle implements InspectorHandle {
+    private class TimestampInspectorHandle extends PrimitiveInspectorHandle {
         private TimestampObjectInspector timestampInspector;
         private DateTimeFormatter isoFormatter = ISODateTimeFormat.dateTimeNoMillis();
 
@@ -346,6 +708,33 @@ public class JsonConverter  implements Converter {
     }
 
 
+    private class DecimalInspectorHandle extends PrimitiveInspectorHandle {
+        @Override
+        public void generateJson(JsonGenerator gen, Object obj) throws JsonGenerationException, IOException {
+            if (obj == null) {
+                gen.writeNull();
+            } else {
+                HiveDecimal num = (HiveDecimal) primInspector.getPrimitiveJavaObject(obj);
+                gen.writeNumber(num.bigDecimalValue());
+            }
+        }
+    }
+
+    /**
+     * VARCHAR, CHAR and DATE, written as their text form.
+     */
+    private class TextInspectorHandle extends PrimitiveInspectorHandle {
+        @Override
+        public void generateJson(JsonGenerator gen, Object obj) throws JsonGenerationException, IOException {
+            if (obj == null) {
+                gen.writeNull();
+            } else {
+                gen.writeString(primInspector.getPrimitiveJavaObject(obj).toString());
+            }
+        }
+    }
+
+
     private InspectorHandle generateInspectorHandle(ObjectInspector insp) throws UDFArgumentException {
         Category cat = insp.getCategory();
         if (cat == Category.MAP) {
@@ -356,34 +745,122 @@ public class JsonConverter  implements Converter {
             return new StructInspectorHandle((StructObjectInspector) insp);
         } else if (cat == Category.PRIMITIVE) {
             PrimitiveObjectInspector primInsp = (PrimitiveObjectInspector) insp;
-            PrimitiveCategory primCat = primInsp.getPrimitiveCategory();
-            if (primCat == PrimitiveCategory.STRING) {
-                return new StringInspectorHandle((StringObjectInspector) primInsp);
-            } else if (primCat == PrimitiveCategory.INT) {
-                return new IntInspectorHandle((IntObjectInspector) primInsp);
-            } else if (primCat == PrimitiveCategory.LONG) {
-                return new LongInspectorHandle((LongObjectInspector) primInsp);
-            } else if (primCat == PrimitiveCategory.SHORT) {
-                return new ShortInspectorHandle((ShortObjectInspector) primInsp);
-            } else if (primCat == PrimitiveCategory.BOOLEAN) {
-                return new BooleanInspectorHandle((BooleanObjectInspector) primInsp);
-            } else if (primCat == PrimitiveCategory.FLOAT) {
-                return new FloatInspectorHandle((FloatObjectInspector) primInsp);
-            } else if (primCat == PrimitiveCategory.DOUBLE) {
-                return new DoubleInspectorHandle((DoubleObjectInspector) primInsp);
-            } else if (primCat == PrimitiveCategory.BYTE) {
-                return new ByteInspectorHandle((ByteObjectInspector) primInsp);
-            } else if (primCat == PrimitiveCategory.BINARY) {
-                return new BinaryInspectorHandle((BinaryObjectInspector) primInsp);
-            } else if (primCat == PrimitiveCategory.TIMESTAMP) {
-                return new TimestampInspectorHandle((TimestampObjectInspector) primInsp);
+            PrimitiveInspectorHandle handle = generatePrimitiveInspectorHandle(primInsp);
+            if (handle != null) {
+                handle.primInspector = primInsp;
+                if (planner != null) {
+                    handle.finders = planner.plan(primInsp);
+                }
+                return handle;
             }
         }
         throw new UDFArgumentException("Don't know how to handle object inspector " + insp);
     }
+
+    private PrimitiveInspectorHandle generatePrimitiveInspectorHandle(PrimitiveObjectInspector primInsp) {
+        PrimitiveCategory primCat = primInsp.getPrimitiveCategory();
+        if (primCat == PrimitiveCategory.STRING) {
+            return new StringInspectorHandle((StringObjectInspector) primInsp);
+        } else if (primCat == PrimitiveCategory.INT) {
+            return new IntInspectorHandle((IntObjectInspector) primInsp);
+        } else if (primCat == PrimitiveCategory.LONG) {
+            return new LongInspectorHandle((LongObjectInspector) primInsp);
+        } else if (primCat == PrimitiveCategory.SHORT) {
+            return new ShortInspectorHandle((ShortObjectInspector) primInsp);
+        } else if (primCat == PrimitiveCategory.BOOLEAN) {
+            return new BooleanInspectorHandle((BooleanObjectInspector) primInsp);
+        } else if (primCat == PrimitiveCategory.FLOAT) {
+            return new FloatInspectorHandle((FloatObjectInspector) primInsp);
+        } else if (primCat == PrimitiveCategory.DOUBLE) {
+            return new DoubleInspectorHandle((DoubleObjectInspector) primInsp);
+        } else if (primCat == PrimitiveCategory.BYTE) {
+            return new ByteInspectorHandle((ByteObjectInspector) primInsp);
+        } else if (primCat == PrimitiveCategory.BINARY) {
+            return new BinaryInspectorHandle((BinaryObjectInspector) primInsp);
+        } else if (primCat == PrimitiveCategory.TIMESTAMP) {
+            return new TimestampInspectorHandle((TimestampObjectInspector) primInsp);
+        } else if (primCat == PrimitiveCategory.VARCHAR || primCat == PrimitiveCategory.CHAR
+                || primCat == PrimitiveCategory.DATE) {
+            return new TextInspectorHandle();
+        } else if (primCat == PrimitiveCategory.DECIMAL) {
+            return new DecimalInspectorHandle();
+        }
+        return null;
+    }
     
     
+    /**
+     * @return false when no leaf of the converted type has a finder planned,
+     * in which case {@link #scanLeaves} never calls its visitor.
+     */
+    public boolean hasLeaves() {
+        return inspHandle != null && inspHandle.hasLeaves();
+    }
+
+    /**
+     * @return the finders planned for any leaf of the converted type.
+     */
+    public Set<Finder> getFinders() {
+        Set<Finder> finders = new LinkedHashSet<Finder>();
+        if (inspHandle != null) {
+            inspHandle.collectFinders(finders);
+        }
+        return finders;
+    }
+
+    /**
+     * Stops running finder on any leaf.
+     * @return false when no leaf is left to scan.
+     */
+    public boolean removeFinder(Finder finder) {
+        if (inspHandle == null) {
+            return false;
+        }
+        inspHandle.removeFinder(finder);
+        return inspHandle.hasLeaves();
+    }
+
+    /**
+     * Walks the scannable leaves of obj, skipping subtrees pruned when the
+     * converter was built. rootPath prefixes every reported path.
+     */
+    public void scanLeaves(Object obj, String rootPath, LeafVisitor visitor) throws HiveException {
+        leafPath.setLength(0);
+        leafPath.append(rootPath);
+        inspHandle.scanLeaves(obj, leafPath, visitor);
+    }
+
+    /**
+     * @return the inspector of what {@link #redact} returns: the converted
+     * type with its string, varchar and char leaves as strings.
+     */
+    public ObjectInspector getRedactedInspector() throws UDFArgumentException {
+        if (inspHandle == null) {
+            throw new UDFArgumentException("Cannot redact values of this type");
+        }
+        return inspHandle.getRedactedInspector();
+    }
+
+    /**
+     * @return a standard copy of obj, in the shape of
+     * {@link #getRedactedInspector()}, with its text leaves passed through
+     * redactor with the finders planned for them.
+     */
+    public Object redact(Object obj, LeafRedactor redactor) throws HiveException {
+        return inspHandle.redact(obj, redactor);
+    }
+
     public JsonConverter (ObjectInspector insp) {
+    	this(insp, null);
+    }
+
+    /**
+     * @param planner decides which primitive leaves are scanned by
+     * {@link #scanLeaves}, and with which finders. May be null when the
+     * converter is only used to produce JSON.
+     */
+    public JsonConverter (ObjectInspector insp, FinderPlanner planner) {
+    	this.planner = planner;
     	try {
 			inspHandle = generateInspectorHandle(insp);
 		} catch (UDFArgumentException e) {
@@ -395,14 +872,23 @@ public class JsonConverter  implements Converter {
 	@Override
 	public Object convert(Object arg0) {
 		try {
-            StringWriter writer = new StringWriter();
-            JsonGenerator gen = jsonFactory.createJsonGenerator(writer);
+            if (gen == null) {
+                gen = jsonFactory.createJsonGenerator(buffer, JsonEncoding.UTF8);
+            }
+            buffer.reset();
             inspHandle.generateJson(gen, arg0);
-            gen.close();
-            writer.close();
-            return new Text(writer.toString());
+            gen.flush();
+            // the generator separates consecutive root values with a space
+            int start = 0;
+            while (start < buffer.length && buffer.data[start] == ' ') {
+                start++;
+            }
+            text.set(buffer.data, start, buffer.length - start);
+            return text;
         } catch (IOException e) {
             LOG.error(e);
+            // the generator may be left in the middle of a value
+            gen = null;
             return null;
         }
 	}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Writes the dictionary of a {@link KnownValueFinder} from a file of known
+ * values, one per line. Each value must be a single token as the finder
+ * splits values, such as 123-45-6789 or jane.doe@example.com; lines which
+ * are not are counted and skipped. The values are hashed with a seed drawn
+ * at random unless one is given, so that the hashes of one dictionary are of
+ * no use with another. The seed is printed, to list matches as fingerprints
+ * which can be joined with the dictionary, and kept as secret as the values.
+ * The seed of an existing dictionary is printed with -print-seed.
+ *
+ * The filter has about 10 bits per value, rounded up to a power of two,
+ * which lets through less than 1% of the tokens not in the dictionary.
+ *
+ * Usage: KnownValueBuilder [-seed n] name values output
+ *        KnownValueBuilder -print-seed dictionary
+ */
+public class KnownValueBuilder extends Configured implements Tool {
+	static final Log LOG = LogFactory.getLog(KnownValueBuilder.class);
+
+	private static final int BITS_PER_VALUE = 10;
+
+	public static void main(String[] args) throws Exception {
+		System.exit(ToolRunner.run(new KnownValueBuilder(), args));
+	}
+
+	@Override
+	public int run(String[] args) throws Exception {
+		if (args.length == 2 && "-print-seed".equals(args[0])) {
+			KnownValueFinder finder = KnownValueFinder.open(new File(args[1]));
+			System.out.println(finder.getSeed());
+			return 0;
+		}
+		long seed = new SecureRandom().nextLong();
+		int i = 0;
+		if (args.length > 1 && "-seed".equals(args[0])) {
+			seed = Long.parseLong(args[1]);
+			i = 2;
+		}
+		if (args.length - i != 3) {
+			System.err.println("Usage: KnownValueBuilder [-seed n] name values output");
+			System.err.println("       KnownValueBuilder -print-seed dictionary");
+			return 2;
+		}
+		Path input = new Path(args[i + 1]);
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+				input.getFileSystem(getConf()).open(input), StandardCharsets.UTF_8))) {
+			build(args[i], in, new File(args[i + 2]), seed);
+		}
+		// on the console only, not in the logs
+		System.out.println("Hashed with seed " + seed + ", the " + ScanOptions.OUTPUT_FINGERPRINT_SEED
+				+ " of fingerprints joined with the dictionary");
+		return 0;
+	}
+
+	/**
+	 * Hashes the values read from in and writes the dictionary to output.
+	 * @return the number of distinct values written.
+	 */
+	public static long build(String name, BufferedReader in, File output, long seed) throws IOException {
+		long[] hashes = new long[1024];
+		int count = 0;
+		int minLength = Integer.MAX_VALUE;
+		int maxLength = 0;
+		long skipped = 0;
+		String line;
+		while ((line = in.readLine()) != null) {
+			String value = line.trim();
+			if (value.isEmpty()) {
+				continue;
+			}
+			if (!KnownValueFinder.isToken(value)) {
+				skipped++;
+				continue;
+			}
+			if (count == hashes.length) {
+				hashes = Arrays.copyOf(hashes, count * 2);
+			}
+			hashes[count++] = KnownValueFinder.hash(value, 0, value.length(), seed);
+			minLength = Math.min(minLength, value.length());
+			maxLength = Math.max(maxLength, value.length());
+		}
+		Arrays.sort(hashes, 0, count);
+		int distinct = 0;
+		for (int k = 0; k < count; k++) {
+			if (distinct == 0 || hashes[k] != hashes[distinct - 1]) {
+				hashes[distinct++] = hashes[k];
+			}
+		}
+		long bits = 64;
+		while (bits < (long) distinct * BITS_PER_VALUE) {
+			bits <<= 1;
+		}
+		// k = ln 2 * m / n minimizes false positives
+		int probes = distinct == 0 ? 1 : (int) Math.max(1, Math.min(16, Math.round(Math.log(2) * bits / distinct)));
+		long[] filter = new long[(int) (bits / 64)];
+		for (int k = 0; k < distinct; k++) {
+			long step = KnownValueFinder.mix(hashes[k]) | 1;
+			long bit = hashes[k];
+			for (int p = 0; p < probes; p++) {
+				long index = bit & (bits - 1);
+				filter[(int) (index >>> 6)] |= 1L << index;
+				bit += step;
+			}
+		}
+		if (distinct == 0) {
+			// no token is looked up
+			minLength = 1;
+			maxLength = 0;
+		}
+
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output), 1 << 16))) {
+			out.writeInt(KnownValueFinder.MAGIC);
+			out.writeLong(seed);
+			out.writeInt(minLength);
+			out.writeInt(maxLength);
+			out.writeInt(probes);
+			out.writeLong(bits);
+			out.writeLong(distinct);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			// the filter starts on a multiple of 8 bytes
+			long header = KnownValueFinder.HEADER + bytes.length;
+			for (long k = header; k < KnownValueFinder.align(header); k++) {
+				out.writeByte(0);
+			}
+			for (long word : filter) {
+				out.writeLong(word);
+			}
+			for (int k = 0; k < distinct; k++) {
+				out.writeLong(hashes[k]);
+			}
+		}
+		LOG.info("Wrote " + distinct + " known values of " + name + " to " + output
+				+ ", skipped " + skipped + " lines which are not a single token");
+		return distinct;
+	}
+
+}
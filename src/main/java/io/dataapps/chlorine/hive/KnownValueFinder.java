@@ -0,0 +1,291 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import io.dataapps.chlorine.finder.Finder;
+
+/**
+ * Finds the values of a dictionary of known sensitive values, such as the
+ * account numbers of actual customers, rather than anything in their format.
+ * The dictionary holds 64-bit hashes of the values, sorted, behind a Bloom
+ * filter, in a file written by {@link KnownValueBuilder}. The file is mapped
+ * read-only rather than loaded: it stays off the heap, and the tasks of a
+ * node which map the same file share its pages in the page cache.
+ *
+ * A value is split into tokens, runs of letters, digits and the joiners
+ * <code>-._@+</code> without a leading or trailing '.' or '-'. Each token as
+ * long as a known value is hashed where it is, ASCII letters lowercased,
+ * and looked up in the filter, then in the hashes; only a known token
+ * becomes a String. Lookups read the mapping at absolute offsets and can be
+ * made by several threads at once.
+ */
+public class KnownValueFinder implements Finder {
+
+	static final int MAGIC = 0x434b5631; // CKV1
+	// magic, seed, min and max length, hashes per value, filter bits, count, name length
+	static final int HEADER = 4 + 8 + 4 + 4 + 4 + 8 + 8 + 4;
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final String name;
+	private final long seed;
+	private final int minLength;
+	private final int maxLength;
+	private final int hashes;
+	private final long bitMask;
+	private final ByteBuffer filter;
+	private final ByteBuffer values;
+	private final int count;
+	private final FinderProfile profile;
+
+	private KnownValueFinder(String name, long seed, int minLength, int maxLength, int hashes, long bits,
+			ByteBuffer filter, ByteBuffer values, int count) {
+		this.name = name;
+		this.seed = seed;
+		this.minLength = minLength;
+		this.maxLength = maxLength;
+		this.hashes = hashes;
+		this.bitMask = bits - 1;
+		this.filter = filter;
+		this.values = values;
+		this.count = count;
+		this.profile = new FinderProfile(minLength, true);
+	}
+
+	/**
+	 * Maps a dictionary file.
+	 */
+	public static KnownValueFinder open(File file) throws IOException {
+		try (RandomAccessFile in = new RandomAccessFile(file, "r"); FileChannel channel = in.getChannel()) {
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(HEADER, channel.size()));
+			if (header.remaining() < HEADER || header.getInt() != MAGIC) {
+				throw new IOException(file + " is not a known value dictionary");
+			}
+			long seed = header.getLong();
+			int minLength = header.getInt();
+			int maxLength = header.getInt();
+			int hashes = header.getInt();
+			long bits = header.getLong();
+			long count = header.getLong();
+			int nameLength = header.getInt();
+			long filterStart = align(HEADER + nameLength);
+			long valuesStart = filterStart + bits / 8;
+			// a mapping is limited to 2GB, 268 million values
+			if (bits / 8 > Integer.MAX_VALUE || count * 8 > Integer.MAX_VALUE
+					|| valuesStart + count * 8 != channel.size()) {
+				throw new IOException(file + " is too large or truncated");
+			}
+			byte[] name = new byte[nameLength];
+			channel.map(FileChannel.MapMode.READ_ONLY, HEADER, nameLength).get(name);
+			ByteBuffer filter = channel.map(FileChannel.MapMode.READ_ONLY, filterStart, bits / 8);
+			ByteBuffer values = channel.map(FileChannel.MapMode.READ_ONLY, valuesStart, count * 8);
+			// the mappings outlive the channel
+			return new KnownValueFinder(new String(name, StandardCharsets.UTF_8), seed, minLength, maxLength,
+					hashes, bits, filter, values, (int) count);
+		}
+	}
+
+	static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public List<String> find(String value) {
+		return find((CharSequence) value);
+	}
+
+	@Override
+	public List<String> find(Collection<String> values) {
+		List<String> found = new ArrayList<>();
+		for (String value : values) {
+			found.addAll(find(value));
+		}
+		return found;
+	}
+
+	/**
+	 * @return the known tokens of value, in order.
+	 */
+	public List<String> find(CharSequence value) {
+		List<String> found = null;
+		int length = value.length();
+		int i = 0;
+		while (i < length) {
+			while (i < length && !isTokenChar(value.charAt(i))) {
+				i++;
+			}
+			int start = i;
+			while (i < length && isTokenChar(value.charAt(i))) {
+				i++;
+			}
+			int end = i;
+			while (start < end && isTrimmed(value.charAt(start))) {
+				start++;
+			}
+			while (end > start && isTrimmed(value.charAt(end - 1))) {
+				end--;
+			}
+			if (end - start >= minLength && end - start <= maxLength && contains(hash(value, start, end, seed))) {
+				if (found == null) {
+					found = new ArrayList<>();
+				}
+				found.add(value.subSequence(start, end).toString());
+			}
+		}
+		return found == null ? Collections.<String>emptyList() : found;
+	}
+
+	/**
+	 * @return true if hash is one of the dictionary's.
+	 */
+	boolean contains(long hash) {
+		long step = mix(hash) | 1;
+		long bit = hash;
+		for (int k = 0; k < hashes; k++) {
+			long index = bit & bitMask;
+			if ((filter.getLong((int) (index >>> 6) << 3) & (1L << index)) == 0) {
+				return false;
+			}
+			bit += step;
+		}
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long value = values.getLong(middle << 3);
+			if (value < hash) {
+				low = middle + 1;
+			} else if (value > hash) {
+				high = middle - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static boolean isTokenChar(char c) {
+		if (c < 128) {
+			return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+					|| c == '-' || c == '.' || c == '_' || c == '@' || c == '+';
+		}
+		return Character.isLetterOrDigit(c) || Character.isSurrogate(c);
+	}
+
+	/**
+	 * @return true if value would be looked up whole, as a single token.
+	 */
+	static boolean isToken(CharSequence value) {
+		int length = value.length();
+		if (length == 0 || isTrimmed(value.charAt(0)) || isTrimmed(value.charAt(length - 1))) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (!isTokenChar(value.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isTrimmed(char c) {
+		return c == '.' || c == '-';
+	}
+
+	/**
+	 * FNV-1a over the UTF-8 bytes of the chars from start to end, ASCII
+	 * letters lowercased, mixed so that its bits can index the filter.
+	 */
+	static long hash(CharSequence value, int start, int end, long seed) {
+		long hash = FNV_OFFSET ^ seed;
+		for (int i = start; i < end; i++) {
+			int c = value.charAt(i);
+			if (c < 0x80) {
+				if (c >= 'A' && c <= 'Z') {
+					c += 'a' - 'A';
+				}
+				hash = (hash ^ c) * FNV_PRIME;
+			} else if (c < 0x800) {
+				hash = (hash ^ (0xc0 | c >> 6)) * FNV_PRIME;
+				hash = (hash ^ (0x80 | c & 0x3f)) * FNV_PRIME;
+			} else if (Character.isHighSurrogate((char) c) && i + 1 < end
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				c = Character.toCodePoint((char) c, value.charAt(++i));
+				hash = (hash ^ (0xf0 | c >> 18)) * FNV_PRIME;
+				hash = (hash ^ (0x80 | c >> 12 & 0x3f)) * FNV_PRIME;
+				hash = (hash ^ (0x80 | c >> 6 & 0x3f)) * FNV_PRIME;
+				hash = (hash ^ (0x80 | c & 0x3f)) * FNV_PRIME;
+			} else {
+				hash = (hash ^ (0xe0 | c >> 12)) * FNV_PRIME;
+				hash = (hash ^ (0x80 | c >> 6 & 0x3f)) * FNV_PRIME;
+				hash = (hash ^ (0x80 | c & 0x3f)) * FNV_PRIME;
+			}
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * The finalizer of MurmurHash3.
+	 */
+	static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * @return the shortest value of the dictionary as the length of the
+	 * shortest match, for the planner and the prefilter.
+	 */
+	FinderProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * @return the number of values of the dictionary.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the seed the values are hashed with, for their fingerprints.
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+}
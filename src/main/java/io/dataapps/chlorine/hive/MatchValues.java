@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+
+/**
+ * Lists what a finder found in a value for the value column of the output,
+ * comma separated: the values as found, their fingerprints, or nothing, and
+ * at most a given number of them. The count column always has them all.
+ *
+ * A fingerprint is the hex of the 64-bit hash a {@link KnownValueFinder}
+ * looks values up by, ASCII letters lowercased, or of its leading bits. With
+ * the seed of a dictionary, it is the hash the dictionary holds for the value.
+ * The seed has to be given, and kept as secret as the values: without it, or
+ * with a seed that is known, the fingerprints of short values such as SSNs
+ * are reversed by hashing every value of their format.
+ */
+public class MatchValues {
+
+	/** the values as found, the default */
+	public static final String RAW = "raw";
+	public static final String FINGERPRINT = "fingerprint";
+	public static final String NONE = "none";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final String mode;
+	private final int maxValues;
+	private final int fingerprintChars;
+	private final long seed;
+
+	private MatchValues(String mode, int maxValues, int fingerprintChars, long seed) {
+		this.mode = mode;
+		this.maxValues = maxValues;
+		this.fingerprintChars = fingerprintChars;
+		this.seed = seed;
+	}
+
+	public static MatchValues of(ScanOptions options) throws UDFArgumentException {
+		String mode = null;
+		for (String known : new String[] {RAW, FINGERPRINT, NONE}) {
+			if (known.equalsIgnoreCase(options.outputValues)) {
+				mode = known;
+			}
+		}
+		if (mode == null) {
+			throw new UDFArgumentException(ScanOptions.OUTPUT_VALUES + " is " + options.outputValues
+					+ ", not one of " + RAW + ", " + FINGERPRINT + " or " + NONE);
+		}
+		if (options.outputFingerprintChars < 1 || options.outputFingerprintChars > 16) {
+			throw new UDFArgumentException(ScanOptions.OUTPUT_FINGERPRINT_CHARS + " is not between 1 and 16");
+		}
+		Long seed = options.outputFingerprintSeed;
+		if (mode == FINGERPRINT && (seed == null || seed == 0)) {
+			throw new UDFArgumentException(ScanOptions.OUTPUT_VALUES + " is " + FINGERPRINT + ", which needs "
+					+ ScanOptions.OUTPUT_FINGERPRINT_SEED + " set to a secret seed other than 0");
+		}
+		return new MatchValues(mode, options.outputMaxValues, options.outputFingerprintChars,
+				seed == null ? 0 : seed);
+	}
+
+	/**
+	 * Appends the listing of result to out.
+	 */
+	public StringBuilder append(List<String> result, StringBuilder out) {
+		if (mode == NONE) {
+			return out;
+		}
+		int listed = maxValues > 0 ? Math.min(maxValues, result.size()) : result.size();
+		for (int k = 0; k < listed; k++) {
+			if (k > 0) {
+				out.append(',');
+			}
+			String value = result.get(k);
+			if (mode == RAW) {
+				out.append(value);
+			} else {
+				long hash = KnownValueFinder.hash(value, 0, value.length(), seed);
+				for (int c = 0; c < fingerprintChars; c++) {
+					out.append(HEX[(int) (hash >>> (60 - 4 * c)) & 0xf]);
+				}
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * @return a description of the listing, for what depends on it.
+	 */
+	@Override
+	public String toString() {
+		return mode + " " + maxValues + " " + fingerprintChars + " " + seed;
+	}
+
+}
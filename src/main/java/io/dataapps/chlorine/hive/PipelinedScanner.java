@@ -0,0 +1,393 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.io.Text;
+
+import io.dataapps.chlorine.finder.Finder;
+
+/**
+ * Scans rows on a pool of threads while the task thread converts the next
+ * ones. The task thread converts each row, as its objects are reused once
+ * process() returns, and copies the values to scan into batches. Workers run
+ * the finders on whole batches, each with its own prefilter and profile, and
+ * the results are handed to the {@link RowHandler} on the task thread in the
+ * order of the rows, exactly as a serial scan would.
+ *
+ * The rows and bytes of the batches in flight are bounded: the task thread
+ * waits for the oldest batch once either bound is exceeded.
+ */
+public class PipelinedScanner implements RowScanner.ValueSink {
+
+	/**
+	 * Receives the results of each row, in order, on the task thread.
+	 */
+	public interface RowHandler extends RowScanner.MatchHandler {
+		/**
+		 * Called once per row, after matched() for each of its values.
+		 * @param matches the number of values found in the row.
+		 */
+		public void scanned(long matches) throws HiveException;
+	}
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported()
+			&& THREADS.isThreadCpuTimeEnabled();
+
+	// batches are kept small so that the workers start early
+	static final int BATCH_ROWS = 64;
+	static final long BATCH_BYTES = 1L << 20;
+
+	/**
+	 * A value copied out of a row, and what the finders found in it.
+	 */
+	static class Value {
+		final int fieldPos;
+		final String path;
+		final Finder[] finders;
+		// a primitive value, null for the leaves of complex columns
+		final Text text;
+		final String leaf;
+		List<String>[] found;
+
+		Value(int fieldPos, String path, Finder[] finders, Text text, String leaf) {
+			this.fieldPos = fieldPos;
+			this.path = path;
+			this.finders = finders;
+			this.text = text;
+			this.leaf = leaf;
+		}
+	}
+
+	private class Batch implements Callable<Batch> {
+		final List<Value> values = new ArrayList<>();
+		// for each row, the end of its values
+		int[] rowEnds = new int[BATCH_ROWS];
+		int rows;
+		long bytes;
+		long nanos;
+
+		void endRow() {
+			if (rows == rowEnds.length) {
+				rowEnds = Arrays.copyOf(rowEnds, rows * 2);
+			}
+			rowEnds[rows++] = values.size();
+		}
+
+		@Override
+		public Batch call() throws Exception {
+			long start = cpuNanos();
+			Worker worker = workers.get();
+			if (worker == null) {
+				worker = new Worker();
+				workers.set(worker);
+				synchronized (allWorkers) {
+					allWorkers.add(worker);
+				}
+			}
+			for (Value value : values) {
+				worker.scan(value);
+			}
+			nanos = cpuNanos() - start;
+			return this;
+		}
+	}
+
+	/**
+	 * What a worker thread scans with.
+	 */
+	private class Worker {
+		final Prefilter prefilter;
+		final ScanProfile profile;
+		// null when long values are decoded whole
+		final WindowedScanner window;
+		// the thread's own finders, null when the finders are shared
+		final Map<Finder, Finder> own;
+		final TextMatcher matcher = new TextMatcher();
+
+		Worker() throws HiveException {
+			prefilter = scanner.getPrefilter() == null ? null : new Prefilter();
+			profile = scanner.getProfile() == null ? null : new ScanProfile(scanner.getColumnCount());
+			window = options.windowSize > 0 ? new WindowedScanner(options.windowSize, options.windowOverlap) : null;
+			if (options.findersPerThread) {
+				// the registry gives this thread its own engine, with the same finders in the same order
+				List<Finder> shared = scanner.getLookup().getFinders();
+				List<Finder> local = FinderRegistry.lookup(scanner.getSelection(), options).getFinders();
+				own = new IdentityHashMap<>();
+				for (int k = 0; k < shared.size(); k++) {
+					own.put(shared.get(k), local.get(k));
+				}
+			} else {
+				own = null;
+			}
+		}
+
+		void scan(Value value) {
+			long start = profile == null ? 0 : System.nanoTime();
+			Finder[] finders = value.finders;
+			int length = value.text == null ? value.leaf.length() : value.text.getLength();
+			boolean admitted = prefilter == null || (value.text == null ? prefilter.scan(value.leaf, finders)
+					: prefilter.scan(value.text.getBytes(), 0, length, finders)) > 0;
+			if (admitted && own == null && window != null && value.text != null && window.isLong(value.text)) {
+				value.found = window.find(value.text, finders, prefilter, profile);
+			} else if (admitted) {
+				if (value.text != null) {
+					long decoding = profile == null ? 0 : System.nanoTime();
+					matcher.reset(value.text);
+					if (profile != null) {
+						profile.converted(System.nanoTime() - decoding);
+					}
+				}
+				for (int k = 0; k < finders.length; k++) {
+					if (prefilter != null && !prefilter.admitted(k)) {
+						continue;
+					}
+					Finder finder = own == null ? finders[k] : own.get(finders[k]);
+					long running = profile == null ? 0 : System.nanoTime();
+					List<String> result = value.text == null ? finder.find(value.leaf) : matcher.find(finder);
+					if (profile != null) {
+						profile.finderRun(finders[k], System.nanoTime() - running, result.size());
+					}
+					if (result.size() > 0) {
+						if (value.found == null) {
+							value.found = RowScanner.newResults(finders.length);
+						}
+						value.found[k] = result;
+					}
+				}
+			}
+			if (profile != null) {
+				profile.valueScanned(value.fieldPos, length, System.nanoTime() - start);
+			}
+		}
+	}
+
+	private final RowScanner scanner;
+	private final ScanOptions options;
+	private final RowHandler handler;
+	private final int threads;
+	private final ExecutorService executor;
+	private final ThreadLocal<Worker> workers = new ThreadLocal<>();
+	private final List<Worker> allWorkers = new ArrayList<>();
+	private final ArrayDeque<Future<Batch>> pending = new ArrayDeque<>();
+	private Batch batch;
+	private long inFlightRows;
+	private long inFlightBytes;
+
+	private long firstRow;
+	private long wallNanos;
+	private long conversionNanos;
+	private long workerNanos;
+	private long stallNanos;
+	private long occupancy;
+	private long occupancySamples;
+	private long maxOccupancy;
+
+	/**
+	 * @param handler receives the results, usually the function itself.
+	 */
+	public PipelinedScanner(RowScanner scanner, ScanOptions options, RowHandler handler) {
+		this.scanner = scanner;
+		this.options = options;
+		this.handler = handler;
+		// more threads than processors only add switches
+		this.threads = Math.min(options.threads, Runtime.getRuntime().availableProcessors());
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "chlorine-scan-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Converts a row and queues it, after handing over the results of the
+	 * rows which are done.
+	 */
+	public void process(Object[] arguments) throws HiveException {
+		if (firstRow == 0) {
+			firstRow = System.nanoTime();
+		}
+		if (batch == null) {
+			batch = new Batch();
+		}
+		long start = cpuNanos();
+		scanner.convert(arguments, this);
+		batch.endRow();
+		conversionNanos += cpuNanos() - start;
+		if (batch.rows >= BATCH_ROWS || batch.bytes >= BATCH_BYTES) {
+			submit();
+		}
+	}
+
+	@Override
+	public void text(int fieldPos, CharSequence path, Text value, Finder[] finders) {
+		batch.values.add(new Value(fieldPos, path.toString(), finders, new Text(value), null));
+		batch.bytes += value.getLength();
+	}
+
+	@Override
+	public void leaf(int fieldPos, CharSequence path, String value, Finder[] finders) {
+		batch.values.add(new Value(fieldPos, path.toString(), finders, null, value));
+		batch.bytes += 2L * value.length();
+	}
+
+	private void submit() throws HiveException {
+		pending.add(executor.submit(batch));
+		inFlightRows += batch.rows;
+		inFlightBytes += batch.bytes;
+		batch = null;
+		occupancy += inFlightRows;
+		occupancySamples++;
+		maxOccupancy = Math.max(maxOccupancy, inFlightRows);
+		while (!pending.isEmpty() && (pending.peek().isDone()
+				|| inFlightRows > options.pipelineRows || inFlightBytes > options.pipelineBytes)) {
+			deliver();
+		}
+	}
+
+	/**
+	 * Waits for the oldest batch, and hands its results to the handler.
+	 */
+	private void deliver() throws HiveException {
+		long start = System.nanoTime();
+		Batch done;
+		try {
+			done = pending.poll().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HiveException(e);
+		} catch (ExecutionException e) {
+			throw new HiveException(e.getCause());
+		}
+		stallNanos += System.nanoTime() - start;
+		inFlightRows -= done.rows;
+		inFlightBytes -= done.bytes;
+		workerNanos += done.nanos;
+		int v = 0;
+		for (int row = 0; row < done.rows; row++) {
+			long matches = 0;
+			for (; v < done.rowEnds[row]; v++) {
+				Value value = done.values.get(v);
+				if (value.found == null) {
+					continue;
+				}
+				for (int k = 0; k < value.found.length; k++) {
+					if (value.found[k] != null) {
+						matches += value.found[k].size();
+						handler.matched(value.finders[k].getName(), value.found[k], value.fieldPos, value.path);
+					}
+				}
+			}
+			handler.scanned(matches);
+		}
+	}
+
+	/**
+	 * Hands over the results of the rows still in flight, stops the threads,
+	 * and adds their profiles and prefilter stats to the scanner's.
+	 */
+	public void finish() throws HiveException {
+		try {
+			if (batch != null && batch.rows > 0) {
+				submit();
+			}
+			while (!pending.isEmpty()) {
+				deliver();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		wallNanos = firstRow == 0 ? 0 : System.nanoTime() - firstRow;
+		synchronized (allWorkers) {
+			for (Worker worker : allWorkers) {
+				if (worker.profile != null) {
+					scanner.getProfile().add(worker.profile);
+				}
+				if (worker.prefilter != null) {
+					scanner.getPrefilter().add(worker.prefilter);
+				}
+			}
+		}
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * CPU time of the current thread where the JVM measures it, so that a
+	 * thread waiting for a processor does not count as working.
+	 */
+	private static long cpuNanos() {
+		return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	/**
+	 * @return the CPU time converting and scanning would have taken on the
+	 * task thread alone, over the time they took.
+	 */
+	public double getSpeedup() {
+		return wallNanos == 0 ? 0 : (double) (conversionNanos + workerNanos) / wallNanos;
+	}
+
+	/**
+	 * @return the mean number of rows in flight, sampled as batches are queued.
+	 */
+	public double getMeanRowsInFlight() {
+		return occupancySamples == 0 ? 0 : (double) occupancy / occupancySamples;
+	}
+
+	public long getMaxRowsInFlight() {
+		return maxOccupancy;
+	}
+
+	/**
+	 * @return the CPU time of the workers on the batches handed over so far.
+	 */
+	public long getWorkerNanos() {
+		return workerNanos;
+	}
+
+	/**
+	 * @return the time the task thread waited for the workers.
+	 */
+	public long getStallNanos() {
+		return stallNanos;
+	}
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.dataapps.chlorine.finder.Finder;
+
+/**
+ * Decides which finders of a plan are worth running on a value, from a
+ * single pass over its characters or UTF-8 bytes: digit runs, dotted digit
+ * groups, whitespace and marks such as an '@' followed by a '.'. A finder is
+ * skipped when the value lacks something its {@link FinderProfile} requires,
+ * so the prefilter never changes what is found.
+ *
+ * Only ASCII characters are looked at; any other character, or byte of a
+ * multi-byte character, breaks runs and groups like a letter does.
+ */
+public class Prefilter {
+
+	/** an '@' followed, anywhere after it, by a '.' */
+	public static final int AT_THEN_DOT = 1;
+	public static final int COLON = 2;
+	public static final int DOT = 4;
+
+	/**
+	 * How often the prefilter let a finder run, and how often it skipped it.
+	 */
+	public static class Stats {
+		final Finder finder;
+		final FinderProfile profile;
+		long passed;
+		long rejected;
+
+		Stats(Finder finder) {
+			this.finder = finder;
+			this.profile = FinderProfile.of(finder);
+		}
+
+		public Finder getFinder() {
+			return finder;
+		}
+
+		public long getPassed() {
+			return passed;
+		}
+
+		public long getRejected() {
+			return rejected;
+		}
+	}
+
+	private final Map<Finder, Stats> stats = new LinkedHashMap<>();
+	private final Map<Finder[], Stats[]> plans = new IdentityHashMap<>();
+	// consecutive values mostly share a plan
+	private Finder[] lastPlan;
+	private Stats[] lastChecks;
+	private boolean[] admitted = new boolean[0];
+
+	// features of the current value
+	private int digitRun;
+	private int digits;
+	private int dottedGroups;
+	private int spaces;
+	private int marks;
+
+	// state of the pass
+	private int run;
+	private int gap;
+	private boolean inRun;
+	private int plain;
+	private int groups;
+	private boolean previousDigit;
+	private boolean pendingDot;
+	private boolean seenAt;
+
+	/**
+	 * Looks at a UTF-8 value.
+	 * @return the number of finders of plan which may find something in it,
+	 * see {@link #admitted(int)}.
+	 */
+	public int scan(byte[] bytes, int start, int length, Finder[] plan) {
+		reset();
+		for (int i = start; i < start + length; i++) {
+			// bytes of multi-byte characters are negative
+			accept(bytes[i]);
+		}
+		return admit(plan);
+	}
+
+	public int scan(CharSequence value, Finder[] plan) {
+		reset();
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			accept(c < 128 ? c : -1);
+		}
+		return admit(plan);
+	}
+
+	/**
+	 * @return true if finder k of the plan last scanned may find something.
+	 */
+	public boolean admitted(int k) {
+		return admitted[k];
+	}
+
+	public Collection<Stats> getStats() {
+		return stats.values();
+	}
+
+	/**
+	 * Adds the stats of another prefilter, used by another thread.
+	 */
+	void add(Prefilter other) {
+		for (Stats from : other.stats.values()) {
+			Stats to = stats.get(from.finder);
+			if (to == null) {
+				to = new Stats(from.finder);
+				stats.put(from.finder, to);
+			}
+			to.passed += from.passed;
+			to.rejected += from.rejected;
+		}
+	}
+
+	private void reset() {
+		digitRun = digits = dottedGroups = spaces = marks = 0;
+		run = gap = plain = groups = 0;
+		inRun = previousDigit = pendingDot = seenAt = false;
+	}
+
+	private void accept(int c) {
+		if (c >= '0' && c <= '9') {
+			if (!inRun) {
+				run = 0;
+			}
+			run++;
+			inRun = true;
+			gap = 0;
+			digitRun = Math.max(digitRun, run);
+			digits = Math.max(digits, ++plain);
+			if (!previousDigit) {
+				groups = pendingDot ? groups + 1 : 1;
+				dottedGroups = Math.max(dottedGroups, groups);
+			}
+			previousDigit = true;
+			pendingDot = false;
+			return;
+		}
+		plain = 0;
+		pendingDot = c == '.' && previousDigit;
+		previousDigit = false;
+		boolean space = c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B;
+		if (space || c == '-' || c == '.' || c == ')') {
+			if (inRun && ++gap > 2) {
+				inRun = false;
+			}
+		} else {
+			inRun = false;
+		}
+		if (space) {
+			spaces++;
+		} else if (c == '@') {
+			seenAt = true;
+		} else if (c == '.') {
+			marks |= seenAt ? AT_THEN_DOT | DOT : DOT;
+		} else if (c == ':') {
+			marks |= COLON;
+		}
+	}
+
+	private int admit(Finder[] plan) {
+		Stats[] checks = plan == lastPlan ? lastChecks : plans.get(plan);
+		if (checks == null) {
+			checks = new Stats[plan.length];
+			for (int k = 0; k < plan.length; k++) {
+				checks[k] = stats.get(plan[k]);
+				if (checks[k] == null) {
+					checks[k] = new Stats(plan[k]);
+					stats.put(plan[k], checks[k]);
+				}
+			}
+			plans.put(plan, checks);
+		}
+		lastPlan = plan;
+		lastChecks = checks;
+		if (admitted.length < plan.length) {
+			admitted = new boolean[plan.length];
+		}
+		int count = 0;
+		for (int k = 0; k < checks.length; k++) {
+			FinderProfile profile = checks[k].profile;
+			admitted[k] = digitRun >= profile.getMinDigitRun()
+					&& digits >= profile.getMinDigits()
+					&& dottedGroups >= profile.getMinDottedGroups()
+					&& spaces >= profile.getMinSpaces()
+					&& (profile.getMarks() == 0 || (marks & profile.getMarks()) != 0);
+			if (admitted[k]) {
+				checks[k].passed++;
+				count++;
+			} else {
+				checks[k].rejected++;
+			}
+		}
+		return count;
+	}
+
+}
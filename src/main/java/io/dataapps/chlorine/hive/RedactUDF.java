@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.Text;
+
+import io.dataapps.chlorine.finder.Finder;
+
+/**
+ * <code>redact(col[, finders[, mask]])</code>: col with what the finders
+ * find masked, in a single pass of the finders over each value, see
+ * {@link Redactor}. finders is a constant such as 'Email,SSN-dashes' or a
+ * finder definition file ending in .xml, all the built-in finders run when it
+ * is omitted or empty. mask defaults to '*', which replaces every character
+ * of a match.
+ *
+ * A primitive column gives a string, and a value in which nothing is found is
+ * returned as it is. STRUCT, MAP and ARRAY columns are redacted leaf by leaf
+ * and keep their shape, with their string, varchar and char leaves as
+ * strings; map keys are not redacted.
+ */
+public class RedactUDF extends GenericUDF {
+
+	static final String DEFAULT_MASK = "*";
+
+	private transient MapredContext context;
+	private transient Redactor redactor;
+	// a primitive column: its finders, and how to get its text
+	private transient Finder[] finders;
+	private transient StringObjectInspector stringInspector;
+	private transient ObjectInspectorConverters.Converter converter;
+	// a complex column
+	private transient JsonConverter leaves;
+
+	@Override
+	public void configure(MapredContext context) {
+		this.context = context;
+	}
+
+	@Override
+	public ObjectInspector initialize(ObjectInspector[] arguments)
+			throws UDFArgumentException {
+		if (arguments.length < 1 || arguments.length > 3) {
+			throw new UDFArgumentLengthException(getFuncName() + "(col[, finders[, mask]]) takes 1 to 3 arguments");
+		}
+		String names = arguments.length < 2 ? null : getConstant(arguments, 1, "finders");
+		String mask = arguments.length < 3 ? DEFAULT_MASK : getConstant(arguments, 2, "mask");
+		if (mask == null || mask.isEmpty()) {
+			throw new UDFArgumentTypeException(2, "mask of " + getFuncName() + " must not be empty");
+		}
+		ScanOptions options = ScanOptions.from(context);
+		List<Finder> found = names == null || names.trim().isEmpty() ? FinderRegistry.lookup(options).getFinders()
+				: FinderRegistry.lookup(names, options).getFinders();
+		FinderPlanner planner = new FinderPlanner(found);
+		redactor = new Redactor(mask);
+
+		if (arguments[0].getCategory() != Category.PRIMITIVE) {
+			leaves = new JsonConverter(arguments[0], planner);
+			return leaves.getRedactedInspector();
+		}
+		PrimitiveObjectInspector inspector = (PrimitiveObjectInspector) arguments[0];
+		finders = planner.plan(inspector);
+		if (inspector.getPrimitiveCategory() == PrimitiveCategory.STRING && inspector.preferWritable()) {
+			// the Text of the value is used as it is
+			stringInspector = (StringObjectInspector) inspector;
+		} else {
+			converter = ObjectInspectorConverters.getConverter(inspector,
+					PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+		}
+		return PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+	}
+
+	private String getConstant(ObjectInspector[] arguments, int i, String name) throws UDFArgumentException {
+		if (!(arguments[i] instanceof ConstantObjectInspector)) {
+			throw new UDFArgumentTypeException(i, name + " of " + getFuncName() + " must be a constant string");
+		}
+		return getConstantStringValue(arguments, i);
+	}
+
+	@Override
+	public Object evaluate(DeferredObject[] arguments) throws HiveException {
+		Object value = arguments[0].get();
+		if (value == null) {
+			return null;
+		}
+		if (leaves != null) {
+			return leaves.redact(value, redactor);
+		}
+		Text text = stringInspector != null ? stringInspector.getPrimitiveWritableObject(value)
+				: (Text) converter.convert(value);
+		return finders.length == 0 ? text : redactor.redact(text, finders);
+	}
+
+	@Override
+	protected String getFuncName() {
+		return "redact";
+	}
+
+	@Override
+	public String getDisplayString(String[] children) {
+		return getStandardDisplayString(getFuncName(), children);
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+
+import io.dataapps.chlorine.finder.Finder;
+
+/**
+ * Masks what finders find in UTF-8 values. The finders are run once per
+ * value, through a {@link TextMatcher} which gives where their matches are,
+ * and the redacted value is written in one pass into a buffer reused from
+ * value to value. Overlapping matches of different finders are masked once.
+ *
+ * A mask of one character replaces every character of a match, keeping its
+ * length; a longer mask replaces each match as a whole.
+ */
+public class Redactor implements JsonConverter.LeafRedactor {
+	private final byte[] mask;
+	private final boolean perChar;
+	private final TextMatcher matcher = new TextMatcher();
+	private final TextMatcher.Spans spans = new TextMatcher.Spans();
+	private final Prefilter prefilter = new Prefilter();
+	// spans sorted by start, as start << 32 | end
+	private long[] sorted = new long[8];
+	private byte[] out = new byte[256];
+	private int length;
+	private final Text result = new Text();
+
+	public Redactor(String mask) {
+		this.mask = mask.getBytes(StandardCharsets.UTF_8);
+		this.perChar = mask.codePointCount(0, mask.length()) == 1;
+	}
+
+	/**
+	 * @return value itself if the finders found nothing in it, or else a Text
+	 * with what they found masked, overwritten by the next call.
+	 */
+	public Text redact(Text value, Finder[] finders) {
+		if (!redact(value.getBytes(), 0, value.getLength(), finders)) {
+			return value;
+		}
+		result.set(out, 0, length);
+		return result;
+	}
+
+	@Override
+	public Text redactLeaf(Text value, Finder[] finders) {
+		if (!redact(value.getBytes(), 0, value.getLength(), finders)) {
+			return value;
+		}
+		Text redacted = new Text();
+		redacted.set(out, 0, length);
+		return redacted;
+	}
+
+	/**
+	 * Writes the redacted slice to out.
+	 * @return false if the finders found nothing in it.
+	 */
+	private boolean redact(byte[] bytes, int start, int length, Finder[] finders) {
+		if (prefilter.scan(bytes, start, length, finders) == 0) {
+			return false;
+		}
+		matcher.reset(bytes, start, length);
+		spans.clear();
+		for (int k = 0; k < finders.length; k++) {
+			if (prefilter.admitted(k)) {
+				matcher.locate(finders[k], spans);
+			}
+		}
+		int count = spans.size();
+		if (count == 0) {
+			return false;
+		}
+		if (sorted.length < count) {
+			sorted = new long[Math.max(count, sorted.length * 2)];
+		}
+		for (int i = 0; i < count; i++) {
+			sorted[i] = (long) spans.start(i) << 32 | spans.end(i);
+		}
+		Arrays.sort(sorted, 0, count);
+
+		this.length = 0;
+		boolean ascii = matcher.isAscii();
+		CharSequence chars = matcher.getSequence();
+		int pos = 0;
+		for (int i = 0; i < count; i++) {
+			int from = Math.max(pos, (int) (sorted[i] >>> 32));
+			int to = (int) sorted[i];
+			if (to <= from) {
+				// within what an earlier match masked
+				continue;
+			}
+			if (!ascii) {
+				// a regex may match from or up to the middle of a surrogate pair
+				if (from > pos && isPairAt(chars, from - 1)) {
+					from--;
+				}
+				if (to < chars.length() && isPairAt(chars, to - 1)) {
+					to++;
+				}
+			}
+			copy(bytes, start, chars, ascii, pos, from);
+			mask(chars, from, to);
+			pos = to;
+		}
+		copy(bytes, start, chars, ascii, pos, chars.length());
+		return true;
+	}
+
+	/**
+	 * Copies chars from to to of the value, its bytes if it is ASCII.
+	 */
+	private void copy(byte[] bytes, int start, CharSequence chars, boolean ascii, int from, int to) {
+		if (ascii) {
+			ensure(to - from);
+			System.arraycopy(bytes, start + from, out, length, to - from);
+			length += to - from;
+			return;
+		}
+		for (int i = from; i < to; i++) {
+			char c = chars.charAt(i);
+			if (c < 0x80) {
+				put(c);
+			} else if (c < 0x800) {
+				put(0xC0 | c >> 6);
+				put(0x80 | c & 0x3F);
+			} else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(chars.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+				put(0xF0 | codePoint >> 18);
+				put(0x80 | codePoint >> 12 & 0x3F);
+				put(0x80 | codePoint >> 6 & 0x3F);
+				put(0x80 | codePoint & 0x3F);
+			} else if (Character.isSurrogate(c)) {
+				// half of a pair cut by a match, as String.getBytes() writes it
+				put('?');
+			} else {
+				put(0xE0 | c >> 12);
+				put(0x80 | c >> 6 & 0x3F);
+				put(0x80 | c & 0x3F);
+			}
+		}
+	}
+
+	private static boolean isPairAt(CharSequence chars, int i) {
+		return Character.isHighSurrogate(chars.charAt(i)) && i + 1 < chars.length()
+				&& Character.isLowSurrogate(chars.charAt(i + 1));
+	}
+
+	private void mask(CharSequence chars, int from, int to) {
+		if (!perChar) {
+			append(mask);
+			return;
+		}
+		for (int i = from; i < to; i++) {
+			// one mask per code point
+			if (!(Character.isLowSurrogate(chars.charAt(i)) && i > from
+					&& Character.isHighSurrogate(chars.charAt(i - 1)))) {
+				append(mask);
+			}
+		}
+	}
+
+	private void append(byte[] append) {
+		ensure(append.length);
+		System.arraycopy(append, 0, out, length, append.length);
+		length += append.length;
+	}
+
+	private void put(int b) {
+		ensure(1);
+		out[length++] = (byte) b;
+	}
+
+	private void ensure(int more) {
+		if (length + more > out.length) {
+			out = Arrays.copyOf(out, Math.max(length + more, out.length * 2));
+		}
+	}
+
+}
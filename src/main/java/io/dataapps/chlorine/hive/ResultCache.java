@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+import io.dataapps.chlorine.finder.Finder;
+
+/**
+ * Bounded LRU cache of the finder results of one column, for columns which
+ * hold the same values over and over. Primitive columns are keyed by the
+ * bytes of their converted value, leaves of complex columns by their string.
+ *
+ * The cache is bounded both in entries and in estimated heap. Values longer
+ * than the configured length bypass it. Cached result lists are shared and
+ * must not be modified.
+ */
+public class ResultCache {
+
+	/**
+	 * Results of one value: per finder of the plan it was scanned with, the
+	 * values found, or null when the finder found nothing.
+	 */
+	static class Results {
+		final Finder[] finders;
+		final List<String>[] found;
+		final long size;
+
+		Results(Finder[] finders, List<String>[] found, long size) {
+			this.finders = finders;
+			this.found = found;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Key over the bytes of a Text. The probe used for lookups wraps the
+	 * Text buffer, only keys which get inserted own a copy.
+	 */
+	private static class BytesKey {
+		byte[] bytes;
+		int length;
+		int hash;
+
+		BytesKey set(byte[] bytes, int length) {
+			this.bytes = bytes;
+			this.length = length;
+			this.hash = WritableComparator.hashBytes(bytes, length);
+			return this;
+		}
+
+		BytesKey copy() {
+			return new BytesKey().set(Arrays.copyOf(bytes, length), length);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof BytesKey)) {
+				return false;
+			}
+			BytesKey other = (BytesKey) obj;
+			return hash == other.hash
+					&& WritableComparator.compareBytes(bytes, 0, length, other.bytes, 0, other.length) == 0;
+		}
+	}
+
+	// fixed cost of an entry: map entry, key, results and array headers
+	private static final int ENTRY_OVERHEAD = 128;
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final int maxValueLength;
+	private final LinkedHashMap<Object, Results> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final BytesKey probe = new BytesKey();
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long bypassed;
+
+	public ResultCache(int maxEntries, long maxBytes, int maxValueLength) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.maxValueLength = maxValueLength;
+	}
+
+	/**
+	 * @return the results cached for value when it was scanned with finders,
+	 * null if it has to be scanned.
+	 */
+	public Results get(Text value, Finder[] finders) {
+		if (value.getLength() > maxValueLength) {
+			bypassed++;
+			return null;
+		}
+		return lookup(probe.set(value.getBytes(), value.getLength()), finders);
+	}
+
+	public Results get(String value, Finder[] finders) {
+		if (value.length() > maxValueLength) {
+			bypassed++;
+			return null;
+		}
+		return lookup(value, finders);
+	}
+
+	private Results lookup(Object key, Finder[] finders) {
+		Results results = entries.get(key);
+		// a plan changed since, e.g. by classification, invalidates the entry
+		if (results != null && results.finders == finders) {
+			hits++;
+			return results;
+		}
+		misses++;
+		return null;
+	}
+
+	public void put(Text value, Finder[] finders, List<String>[] found) {
+		if (value.getLength() <= maxValueLength) {
+			insert(probe.set(value.getBytes(), value.getLength()).copy(), value.getLength(), finders, found);
+		}
+	}
+
+	public void put(String value, Finder[] finders, List<String>[] found) {
+		if (value.length() <= maxValueLength) {
+			insert(value, 2L * value.length(), finders, found);
+		}
+	}
+
+	private void insert(Object key, long keySize, Finder[] finders, List<String>[] found) {
+		long size = ENTRY_OVERHEAD + keySize + 8L * found.length;
+		for (List<String> values : found) {
+			if (values != null) {
+				for (String v : values) {
+					size += 48 + 2L * v.length();
+				}
+			}
+		}
+		Results previous = entries.put(key, new Results(finders, found, size));
+		if (previous != null) {
+			bytes -= previous.size;
+		}
+		bytes += size;
+		Iterator<Results> eldest = entries.values().iterator();
+		while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+			bytes -= eldest.next().size;
+			eldest.remove();
+		}
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getLookups() {
+		return hits + misses;
+	}
+
+	/**
+	 * @return the number of values too long to be cached.
+	 */
+	public long getBypassed() {
+		return bypassed;
+	}
+
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import io.dataapps.chlorine.finder.Finder;
+import io.dataapps.chlorine.pattern.RegexFinder;
+
+/**
+ * The results of the rows of input files a scan has gone through, kept in a
+ * directory of a Hadoop file system so that a later scan of the same rows
+ * replays them instead of scanning them again.
+ *
+ * Results are kept per range of a file, of a fixed number of bytes, so that
+ * they do not depend on how the file is split between tasks. A range holds
+ * the rows Hive reads from a position in it, and is identified by the path,
+ * length and modification time of the file, the range, and a fingerprint of
+ * the scan: the query or key, the argument types, the finders and the
+ * options which change what is found or how it is listed. A file which
+ * changed is scanned again. A range is stored by a task which read it from
+ * its first row on to the end, as far as the task can tell: up to a row of
+ * a later range, or to the end of the file. Its rows go to a compressed
+ * file, each with where it was read and its output rows, written aside and
+ * renamed into place once the range is done, so that a failed task leaves
+ * nothing behind to replay.
+ *
+ * A later task replays a stored range when it reads its first stored row,
+ * and goes on replaying as long as it reads the rows stored after it, one
+ * by one. When it reads another row, such as when the file is split
+ * otherwise, or stops before the end of the range, the rows it replayed
+ * were the rows it read, and the rest are scanned.
+ */
+public class ResultsStore {
+	static final Log LOG = LogFactory.getLog(ResultsStore.class);
+
+	private static final int MAGIC = 0x43525333; // CRS3
+	private static final String SUFFIX = ".results";
+	// the records of a stored range
+	private static final byte END = 0;
+	private static final byte MATCH = 1;
+	private static final byte ROW = 2;
+
+	/**
+	 * Receives the stored output rows of the rows replayed.
+	 */
+	public interface Replay {
+		public void replayed(String type, long count, int fieldPos, String value, String path)
+				throws HiveException;
+	}
+
+	/**
+	 * What the rows replayed add up to.
+	 */
+	public static class Totals {
+		long records;
+		long matches;
+		long matchedRecords;
+		long size;
+		long pieces;
+
+		public long getRecords() {
+			return records;
+		}
+
+		public long getMatches() {
+			return matches;
+		}
+
+		public long getMatchedRecords() {
+			return matchedRecords;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * @return the number of stored ranges rows were replayed from.
+		 */
+		public long getPieces() {
+			return pieces;
+		}
+	}
+
+	/**
+	 * A stored output row, held until its row is known to be the one read.
+	 */
+	private static class Match {
+		final String type;
+		final long count;
+		final int fieldPos;
+		final String value;
+		final String path;
+
+		Match(String type, long count, int fieldPos, String value, String path) {
+			this.type = type;
+			this.count = count;
+			this.fieldPos = fieldPos;
+			this.value = value;
+			this.path = path;
+		}
+	}
+
+	private final Configuration conf;
+	private final FileSystem fs;
+	private final Path dir;
+	private final String fingerprint;
+	private final RowScanner scanner;
+	private final long rangeBytes;
+	private final Replay replay;
+
+	// the file of the current row, null if none or unknown
+	private Path input;
+	private long inputLength;
+	private long inputModified;
+	// the range of the current row, and where the last row was read
+	private long range;
+	private long lastPosition;
+	// where the row being scanned is read
+	private long position;
+	private long row;
+	private long startSize;
+
+	// the stored range being replayed, null if none
+	private DataInputStream in;
+	private long replayedPosition;
+	private boolean replayedAny;
+	private final List<Match> pending = new ArrayList<>();
+
+	// the range being written, null if none
+	private DataOutputStream out;
+	private Path temp;
+	private Path stored;
+	// true if out replaces a range stored from a later row
+	private boolean replacing;
+	private long writtenPosition;
+	// false once a range could not be scanned whole
+	private boolean writing = true;
+
+	private final Totals totals = new Totals();
+	private long storedRanges;
+
+	/**
+	 * @param dir where the results are kept, created if needed.
+	 * @param fingerprint see {@link #fingerprint(String, ObjectInspector[], RowScanner, ScanOptions)}.
+	 * @param scanner the scanner of the function, for the size of what it scanned.
+	 * @param rangeBytes the bytes of a file stored as one range.
+	 * @param replay receives the output rows of the rows replayed, as they are.
+	 */
+	public ResultsStore(Configuration conf, Path dir, String fingerprint, RowScanner scanner, long rangeBytes,
+			Replay replay) throws IOException {
+		this.conf = conf;
+		this.fs = dir.getFileSystem(conf);
+		this.dir = dir;
+		this.fingerprint = fingerprint;
+		this.scanner = scanner;
+		this.rangeBytes = rangeBytes;
+		this.replay = replay;
+		fs.mkdirs(dir);
+	}
+
+	/**
+	 * @return a digest of what decides the results of a scan: key, which
+	 * names the scan, the types of the arguments, the finders and the
+	 * options which change what they find or how it is listed.
+	 */
+	public static String fingerprint(String key, ObjectInspector[] arguments, RowScanner scanner,
+			ScanOptions options) {
+		StringBuilder scan = new StringBuilder(key);
+		for (ObjectInspector argument : arguments) {
+			scan.append('\n').append(argument.getTypeName());
+		}
+		scan.append('\n').append(scanner.getSelection());
+		for (Finder finder : scanner.getLookup().getFinders()) {
+			scan.append('\n').append(finder.getClass().getName()).append(' ').append(finder.getName());
+			for (RegexFinder part : FinderParts.of(finder)) {
+				scan.append(' ').append(part.getPattern().flags()).append(' ').append(part.getPattern().pattern());
+			}
+			if (finder instanceof KnownValueFinder) {
+				scan.append(' ').append(((KnownValueFinder) finder).getCount());
+			}
+		}
+		scan.append('\n').append(options.maxValueBytes)
+				.append(' ').append(options.windowSize)
+				.append(' ').append(options.windowOverlap)
+				.append('\n').append(options.outputValues)
+				.append(' ').append(options.outputMaxValues)
+				.append(' ').append(options.outputFingerprintChars)
+				.append(' ').append(options.outputFingerprintSeed);
+		return DigestUtils.md5Hex(scan.toString());
+	}
+
+	/**
+	 * Called before each row with where it is read from. Replays the row if
+	 * it is the next one of a stored range.
+	 * @param file the input file of the row, null if unknown.
+	 * @param position where Hive read the row, or the block holding it.
+	 * @param row the row in that block, for formats read block by block.
+	 * @return true if the row was replayed, and is not to be scanned.
+	 */
+	public boolean skip(Path file, long position, long row) throws HiveException {
+		boolean sameFile = file != null && file.equals(input);
+		if (sameFile && position >= lastPosition && position / rangeBytes == range) {
+			lastPosition = position;
+			if (in != null && replay(position, row)) {
+				return true;
+			}
+		} else {
+			// a later range of the same file follows the whole of this one
+			endRange(sameFile && position > lastPosition);
+			if (file == null) {
+				// rows of unknown origin cannot be told apart
+				input = null;
+			} else if (enter(file, sameFile, position, row)) {
+				return true;
+			}
+		}
+		this.position = position;
+		this.row = row;
+		startSize = scanner.getTotalSize();
+		return false;
+	}
+
+	/**
+	 * Starts the range of a row, replaying it if it is stored from that row on.
+	 * @return true if the row was replayed.
+	 */
+	private boolean enter(Path file, boolean sameFile, long position, long row) throws HiveException {
+		try {
+			if (!sameFile) {
+				FileStatus status = file.getFileSystem(conf).getFileStatus(file);
+				inputLength = status.getLen();
+				inputModified = status.getModificationTime();
+			}
+			input = file;
+			range = position / rangeBytes;
+			lastPosition = position;
+			String key = file + "\t" + inputLength + "\t" + inputModified + "\t" + rangeBytes + "\t" + range
+					+ "\t" + fingerprint;
+			String name = DigestUtils.md5Hex(key);
+			stored = new Path(dir, name + SUFFIX);
+			boolean exists = fs.exists(stored);
+			long firstPosition = Long.MAX_VALUE;
+			long firstRow = Long.MAX_VALUE;
+			if (exists) {
+				DataInputStream stream = new DataInputStream(new BufferedInputStream(
+						new GZIPInputStream(fs.open(stored))));
+				try {
+					if (stream.readInt() != MAGIC || !key.equals(stream.readUTF())) {
+						throw new IOException("not the results of " + key);
+					}
+					firstPosition = WritableUtils.readVLong(stream);
+					firstRow = WritableUtils.readVLong(stream);
+				} catch (IOException e) {
+					LOG.warn("Cannot read " + stored + ", scanning its rows", e);
+					stream.close();
+					stream = null;
+				}
+				if (stream != null && firstPosition == position && firstRow == row) {
+					in = stream;
+					replayedPosition = position;
+					replayedAny = false;
+					return replay(position, row);
+				}
+				if (stream != null) {
+					stream.close();
+				}
+			}
+			// a range read from an earlier row replaces one stored from a later row
+			if (writing && (position < firstPosition || position == firstPosition && row < firstRow)) {
+				replacing = exists;
+				// hidden from readers of the directory until renamed
+				temp = new Path(dir, "_" + name + "." + UUID.randomUUID());
+				out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(fs.create(temp, false))));
+				out.writeInt(MAGIC);
+				out.writeUTF(key);
+				WritableUtils.writeVLong(out, position);
+				WritableUtils.writeVLong(out, row);
+				writtenPosition = position;
+			}
+			return false;
+		} catch (IOException e) {
+			throw new HiveException("Cannot look up the results of " + file + " in " + dir, e);
+		}
+	}
+
+	/**
+	 * Replays a row if it is the next one stored.
+	 * @return false, and stops replaying, if it is not.
+	 */
+	private boolean replay(long position, long row) throws HiveException {
+		pending.clear();
+		try {
+			byte record = in.readByte();
+			for (; record == MATCH; record = in.readByte()) {
+				String type = in.readUTF();
+				long count = WritableUtils.readVLong(in);
+				int fieldPos = WritableUtils.readVInt(in);
+				byte[] bytes = new byte[WritableUtils.readVInt(in)];
+				in.readFully(bytes);
+				pending.add(new Match(type, count, fieldPos, new String(bytes, StandardCharsets.UTF_8), in.readUTF()));
+			}
+			if (record != ROW) {
+				// the end of the range
+				closeReplay();
+				return false;
+			}
+			long storedPosition = replayedPosition + WritableUtils.readVLong(in);
+			long storedRow = WritableUtils.readVLong(in);
+			long matches = WritableUtils.readVLong(in);
+			long size = WritableUtils.readVLong(in);
+			if (storedPosition == position && storedRow == row) {
+				replayedPosition = storedPosition;
+				for (Match match : pending) {
+					replay.replayed(match.type, match.count, match.fieldPos, match.value, match.path);
+				}
+				if (!replayedAny) {
+					replayedAny = true;
+					totals.pieces++;
+				}
+				totals.records++;
+				if (matches > 0) {
+					totals.matches += matches;
+					totals.matchedRecords++;
+				}
+				totals.size += size;
+				return true;
+			}
+		} catch (IOException e) {
+			LOG.warn("Cannot replay " + stored + ", scanning the rest of its rows", e);
+		}
+		closeReplay();
+		return false;
+	}
+
+	private void closeReplay() {
+		try {
+			in.close();
+		} catch (IOException e) {
+			LOG.warn("Cannot close " + stored, e);
+		}
+		in = null;
+	}
+
+	/**
+	 * Ends the current range, storing it if it was read whole.
+	 * @param left true if the next row is read from a later range of the file.
+	 */
+	private void endRange(boolean left) throws HiveException {
+		if (in != null) {
+			closeReplay();
+		}
+		if (out != null) {
+			// the last row of a text or ORC file is read at its end
+			if (left || lastPosition >= inputLength) {
+				finish();
+			} else {
+				discard();
+			}
+		}
+	}
+
+	/**
+	 * Records an output row of the row being scanned.
+	 */
+	public void matched(String type, long count, int fieldPos, Text value, String path) throws HiveException {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.writeByte(MATCH);
+			out.writeUTF(type);
+			WritableUtils.writeVLong(out, count);
+			WritableUtils.writeVInt(out, fieldPos);
+			// values may be longer than writeUTF takes
+			WritableUtils.writeVInt(out, value.getLength());
+			out.write(value.getBytes(), 0, value.getLength());
+			out.writeUTF(path);
+		} catch (IOException e) {
+			throw new HiveException("Cannot store the results of " + input, e);
+		}
+	}
+
+	/**
+	 * Records the row being scanned, after its matches.
+	 */
+	public void scanned(long rowMatches) throws HiveException {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.writeByte(ROW);
+			WritableUtils.writeVLong(out, position - writtenPosition);
+			WritableUtils.writeVLong(out, row);
+			WritableUtils.writeVLong(out, rowMatches);
+			WritableUtils.writeVLong(out, scanner.getTotalSize() - startSize);
+			writtenPosition = position;
+		} catch (IOException e) {
+			throw new HiveException("Cannot store the results of " + input, e);
+		}
+	}
+
+	/**
+	 * Stops storing results, as the current range is not scanned whole.
+	 * Stored ranges are still replayed.
+	 */
+	public void abandon() {
+		writing = false;
+		discard();
+	}
+
+	private void discard() {
+		if (out != null) {
+			try {
+				out.close();
+				fs.delete(temp, false);
+			} catch (IOException e) {
+				LOG.warn("Cannot delete " + temp, e);
+			}
+			out = null;
+		}
+	}
+
+	/**
+	 * Stores the range being written.
+	 */
+	private void finish() throws HiveException {
+		try {
+			out.writeByte(END);
+			out.close();
+			out = null;
+			if (replacing) {
+				fs.delete(stored, false);
+			}
+			// another attempt of the task may have stored the range already
+			if (fs.rename(temp, stored)) {
+				storedRanges++;
+			} else {
+				fs.delete(temp, false);
+			}
+		} catch (IOException e) {
+			throw new HiveException("Cannot store the results of " + stored, e);
+		}
+	}
+
+	/**
+	 * Stores the range being scanned if it was read to the end of its file.
+	 * @return the totals of the rows replayed.
+	 */
+	public Totals close() throws HiveException {
+		endRange(false);
+		return totals;
+	}
+
+	/**
+	 * @return the number of ranges whose results this scan stored.
+	 */
+	public long getStoredPieces() {
+		return storedRanges;
+	}
+
+}
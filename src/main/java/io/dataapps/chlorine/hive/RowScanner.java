@@ -0,0 +1,681 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+
+import io.dataapps.chlorine.finder.Finder;
+
+/**
+ * The matching shared by the scan functions: the per-column plans compiled
+ * from the argument types, and the scan of one row against them.
+ *
+ * Arguments are the ones the function was called with. Leading option
+ * arguments are skipped, and a constant string right after them, such as
+ * 'Email,SSN-dashes', names the finders to run instead of being scanned
+ * when each name in it is the name of a finder. A constant ending in .xml
+ * is a finder definition file instead. Any other constant is scanned.
+ */
+public class RowScanner {
+	static final Log LOG = LogFactory.getLog(RowScanner.class);
+
+	/**
+	 * Receives every value in which a finder found something.
+	 */
+	public interface MatchHandler {
+		public void matched(String type, List<String> result, int fieldPos, CharSequence path)
+				throws HiveException;
+	}
+
+	/**
+	 * Receives the values of a row which have finders to run, see
+	 * {@link RowScanner#convert(Object[], ValueSink)}. Text values are reused.
+	 */
+	public interface ValueSink {
+		public void text(int fieldPos, CharSequence path, Text value, Finder[] finders);
+
+		public void leaf(int fieldPos, CharSequence path, String value, Finder[] finders);
+	}
+
+	private final ObjectInspectorConverters.Converter[] converters;
+	// finders planned for each primitive column, from its type
+	private final Finder[][] columnFinders;
+	// complex columns are scanned leaf by leaf instead of through their JSON text
+	private final JsonConverter[] leafScanners;
+	private final String[] columnPaths;
+	// results of repeated values, per column, when enabled
+	private final ResultCache[] caches;
+	// offset, plus 1 when the finders are chosen by a constant argument
+	private final int firstColumn;
+	// the constant choosing the finders, null if none
+	private final String selection;
+	private final FinderRegistry.Lookup lookup;
+	private final MatchingLeafVisitor leafVisitor = new MatchingLeafVisitor();
+	private final SinkLeafVisitor leafSink = new SinkLeafVisitor();
+	private long totalSize = 0;
+	// null unless profiling, nothing is timed then
+	private ScanProfile profile;
+	// null when every planned finder runs on every value
+	private Prefilter prefilter;
+	// null when long values are decoded whole
+	private WindowedScanner window;
+	// matches primitive values without decoding them into Strings
+	private final TextMatcher matcher = new TextMatcher();
+	// null unless the short values of a row are scanned together
+	private FusedScanner fused;
+	private int fusedMaxLength;
+	// per column, the values of the current row converted by fuse(), and
+	// their index in the fused row, or NOT_FUSED or NOTHING_ADMITTED
+	private Text[] rowValues;
+	private int[] fusedValues;
+	private static final int NOT_FUSED = -1;
+	private static final int NOTHING_ADMITTED = -2;
+	// longer values are cut to this many bytes, or chars for leaves, 0 never
+	private int maxValueBytes;
+	// per column, the cut value of the current row
+	private Text[] truncated;
+	private long truncatedValues;
+	private long truncatedSize;
+
+	/**
+	 * @param offset number of leading arguments which are options of the
+	 * function rather than columns to scan.
+	 * @param options where the finders come from, see {@link FinderRegistry}.
+	 */
+	public RowScanner(ObjectInspector[] arguments, int offset, ScanOptions options)
+			throws UDFArgumentException {
+		int first = offset;
+		String selection = null;
+		String constant = getConstantString(arguments, offset);
+		if (FinderRegistry.isFinderFile(constant)) {
+			selection = constant;
+			lookup = FinderRegistry.lookup(selection, options);
+		} else {
+			FinderRegistry.Lookup all = FinderRegistry.lookup(options);
+			if (constant != null && FinderPlanner.names(all.getFinders(), constant)) {
+				selection = constant;
+				all = all.select(selection);
+			} else if (constant != null) {
+				LOG.info("'" + constant + "' does not name finders, scanning it as a column");
+			}
+			lookup = all;
+		}
+		if (selection != null) {
+			first = offset + 1;
+		}
+		firstColumn = first;
+		this.selection = selection;
+		FinderPlanner planner = new FinderPlanner(lookup.getFinders());
+
+		converters = new ObjectInspectorConverters.Converter[arguments.length];
+		columnFinders = new Finder[arguments.length][];
+		leafScanners = new JsonConverter[arguments.length];
+		columnPaths = new String[arguments.length];
+		caches = new ResultCache[arguments.length];
+		for (int i = firstColumn; i < arguments.length; i++) {
+			columnPaths[i] = String.valueOf(i - firstColumn);
+			if (arguments[i].getCategory() == Category.PRIMITIVE) {
+				Finder[] planned = planner.plan((PrimitiveObjectInspector) arguments[i]);
+				// columns of a type no finder can match are never scanned
+				if (planned.length > 0) {
+					columnFinders[i] = planned;
+					converters[i] = ObjectInspectorConverters.getConverter(arguments[i],
+							PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+				}
+			} else  {
+				JsonConverter leafScanner = new JsonConverter(arguments[i], planner);
+				if (leafScanner.hasLeaves()) {
+					leafScanners[i] = leafScanner;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the constant string at offset if columns follow it, which may
+	 * choose the finders, null if there is none.
+	 */
+	private static String getConstantString(ObjectInspector[] arguments, int offset) {
+		if (arguments.length > offset + 1
+				&& arguments[offset] instanceof ConstantObjectInspector
+				&& arguments[offset].getCategory() == Category.PRIMITIVE
+				&& ((PrimitiveObjectInspector) arguments[offset]).getPrimitiveCategory() == PrimitiveCategory.STRING) {
+			Object names = ((ConstantObjectInspector) arguments[offset]).getWritableConstantValue();
+			return names == null ? null : names.toString();
+		}
+		return null;
+	}
+
+	/**
+	 * @return how the finders were obtained from the registry.
+	 */
+	public FinderRegistry.Lookup getLookup() {
+		return lookup;
+	}
+
+	/**
+	 * @return the constant argument choosing the finders, null if none.
+	 */
+	String getSelection() {
+		return selection;
+	}
+
+	/**
+	 * @return the number of scanned columns, which is the range of fieldpos.
+	 */
+	public int getColumnCount() {
+		return converters.length - firstColumn;
+	}
+
+	/**
+	 * @return true if the column at fieldPos has anything for the finders to scan.
+	 */
+	public boolean isScanned(int fieldPos) {
+		int i = fieldPos + firstColumn;
+		return converters[i] != null || leafScanners[i] != null;
+	}
+
+	/**
+	 * Caches the results of every scanned column, see {@link ResultCache}.
+	 */
+	public void enableCache(int maxEntries, long maxBytes, int maxValueLength) {
+		for (int i = firstColumn; i < caches.length; i++) {
+			caches[i] = new ResultCache(maxEntries, maxBytes, maxValueLength);
+		}
+	}
+
+	/**
+	 * @return the result cache of the column at fieldPos, null if disabled.
+	 */
+	public ResultCache getCache(int fieldPos) {
+		return caches[fieldPos + firstColumn];
+	}
+
+	/**
+	 * Starts timing conversion and matching, see {@link ScanProfile}.
+	 */
+	public ScanProfile enableProfile() {
+		profile = new ScanProfile(getColumnCount());
+		return profile;
+	}
+
+	/**
+	 * @return the profile of the scans so far, null if not enabled.
+	 */
+	public ScanProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Skips the finders which cannot match a value, see {@link Prefilter}.
+	 */
+	public Prefilter enablePrefilter() {
+		prefilter = new Prefilter();
+		return prefilter;
+	}
+
+	/**
+	 * @return the prefilter, null if not enabled.
+	 */
+	public Prefilter getPrefilter() {
+		return prefilter;
+	}
+
+	/**
+	 * Scans primitive values longer than size bytes in windows, see
+	 * {@link WindowedScanner}.
+	 */
+	public void enableWindows(int size, int overlap) {
+		window = new WindowedScanner(size, overlap);
+	}
+
+	/**
+	 * Scans the primitive values of at most maxValueLength bytes of each row
+	 * together, see {@link FusedScanner}. Columns with a result cache are
+	 * scanned value by value.
+	 */
+	public void enableFused(int maxValueLength) {
+		fused = new FusedScanner(lookup.getFinders(), converters.length);
+		fusedMaxLength = maxValueLength;
+		rowValues = new Text[converters.length];
+		fusedValues = new int[converters.length];
+	}
+
+	/**
+	 * Scans only the first maxValueBytes bytes of longer primitive values,
+	 * and the first maxValueBytes chars of longer leaves, cut before a
+	 * character rather than in the middle of it.
+	 */
+	public void enableTruncation(int maxValueBytes) {
+		this.maxValueBytes = maxValueBytes;
+		truncated = new Text[converters.length];
+	}
+
+	/**
+	 * @return the number of values cut short so far.
+	 */
+	public long getTruncatedValues() {
+		return truncatedValues;
+	}
+
+	/**
+	 * @return the bytes of primitive values and chars of leaves cut off so
+	 * far, which are not part of the total size.
+	 */
+	public long getTruncatedSize() {
+		return truncatedSize;
+	}
+
+	/**
+	 * @return the value of the column at fieldPos in a row.
+	 */
+	public Object getValue(Object[] arguments, int fieldPos) {
+		return arguments[fieldPos + firstColumn];
+	}
+
+	/**
+	 * @return the finders run on the column at fieldPos, on any of its leaves
+	 * for complex columns.
+	 */
+	public Finder[] getFinders(int fieldPos) {
+		int i = fieldPos + firstColumn;
+		if (leafScanners[i] != null) {
+			Set<Finder> finders = leafScanners[i].getFinders();
+			return finders.toArray(new Finder[finders.size()]);
+		}
+		return columnFinders[i] == null ? FinderPlanner.NO_FINDERS : columnFinders[i];
+	}
+
+	/**
+	 * Stops running finder on the column at fieldPos. A column left without
+	 * finders is not scanned any more.
+	 */
+	public void removeFinder(int fieldPos, Finder finder) {
+		int i = fieldPos + firstColumn;
+		if (leafScanners[i] != null) {
+			if (!leafScanners[i].removeFinder(finder)) {
+				leafScanners[i] = null;
+			}
+		} else if (columnFinders[i] != null) {
+			columnFinders[i] = FinderPlanner.without(columnFinders[i], finder);
+			if (columnFinders[i].length == 0) {
+				columnFinders[i] = null;
+				converters[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes of primitive columns and characters of
+	 * complex column leaves scanned so far.
+	 */
+	public long getTotalSize() {
+		return totalSize;
+	}
+
+	/**
+	 * Scans one row.
+	 * @return the number of values found.
+	 */
+	public long scan(Object[] arguments, MatchHandler handler) throws HiveException {
+		if (fused != null) {
+			fuse(arguments);
+		}
+		long matches = 0;
+		for (int i = firstColumn; i < arguments.length; i++) {
+			if (arguments[i] == null) {
+				continue;
+			}
+			if (leafScanners[i] != null) {
+				leafVisitor.fieldPos = i - firstColumn;
+				leafVisitor.cache = caches[i];
+				leafVisitor.handler = handler;
+				leafVisitor.matches = 0;
+				leafScanners[i].scanLeaves(arguments[i], columnPaths[i], leafVisitor);
+				matches += leafVisitor.matches;
+			} else if (converters[i] != null) {
+				long start = profile == null ? 0 : System.nanoTime();
+				Text value;
+				if (fused != null && rowValues[i] != null) {
+					value = rowValues[i];
+					rowValues[i] = null;
+					if (fusedValues[i] >= 0) {
+						matches += replay(fused.getFound(fusedValues[i]), columnFinders[i], i - firstColumn,
+								columnPaths[i], handler);
+					}
+					if (fusedValues[i] != NOT_FUSED) {
+						continue;
+					}
+				} else {
+					value = convert(i, arguments[i]);
+				}
+				ResultCache cache = caches[i];
+				ResultCache.Results cached = cache == null ? null : cache.get(value, columnFinders[i]);
+				if (cached != null) {
+					matches += replay(cached, i - firstColumn, columnPaths[i], handler);
+				} else if (cache != null) {
+					List<String>[] found = prefilter(value, columnFinders[i])
+							? find(value, columnFinders[i]) : nothingFound(columnFinders[i]);
+					cache.put(value, columnFinders[i], found);
+					matches += replay(found, columnFinders[i], i - firstColumn, columnPaths[i], handler);
+				} else if (prefilter(value, columnFinders[i])) {
+					if (window != null && window.isLong(value)) {
+						matches += replay(find(value, columnFinders[i]), columnFinders[i], i - firstColumn,
+								columnPaths[i], handler);
+					} else {
+						matches += scan(value, columnFinders[i], i - firstColumn, columnPaths[i], handler);
+					}
+				}
+				if (profile != null) {
+					profile.valueScanned(i - firstColumn, value.getLength(), System.nanoTime() - start);
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Converts the values of one row which have finders to run, for scanning
+	 * them somewhere else, and hands them to sink in the order scan() would
+	 * run them. The cache and the prefilter are not used.
+	 */
+	public void convert(Object[] arguments, ValueSink sink) throws HiveException {
+		for (int i = firstColumn; i < arguments.length; i++) {
+			if (arguments[i] == null) {
+				continue;
+			}
+			if (leafScanners[i] != null) {
+				leafSink.fieldPos = i - firstColumn;
+				leafSink.sink = sink;
+				leafScanners[i].scanLeaves(arguments[i], columnPaths[i], leafSink);
+			} else if (converters[i] != null) {
+				sink.text(i - firstColumn, columnPaths[i], convert(i, arguments[i]), columnFinders[i]);
+			}
+		}
+	}
+
+	private Text convert(int i, Object argument) {
+		long start = profile == null ? 0 : System.nanoTime();
+		Text value = (Text) converters[i].convert(argument);
+		if (maxValueBytes > 0 && value.getLength() > maxValueBytes) {
+			value = truncate(i, value);
+		}
+		totalSize += value.getLength();
+		if (profile != null) {
+			profile.converted(System.nanoTime() - start);
+		}
+		return value;
+	}
+
+	/**
+	 * @return the first maxValueBytes bytes of value, less a character they
+	 * end in the middle of, in a Text of the column rather than the row's.
+	 */
+	private Text truncate(int i, Text value) {
+		byte[] bytes = value.getBytes();
+		int end = maxValueBytes;
+		// continuation bytes of a UTF-8 character are 10xxxxxx
+		while (end > 0 && (bytes[end] & 0xc0) == 0x80) {
+			end--;
+		}
+		if (truncated[i] == null) {
+			truncated[i] = new Text();
+		}
+		truncated[i].set(bytes, 0, end);
+		truncatedValues++;
+		truncatedSize += value.getLength() - end;
+		return truncated[i];
+	}
+
+	private String truncate(String value) {
+		if (maxValueBytes == 0 || value.length() <= maxValueBytes) {
+			return value;
+		}
+		int end = maxValueBytes;
+		if (Character.isHighSurrogate(value.charAt(end - 1))) {
+			end--;
+		}
+		truncatedValues++;
+		truncatedSize += value.length() - end;
+		return value.substring(0, end);
+	}
+
+	/**
+	 * Converts the primitive values of a row, and scans the short ones
+	 * together. scan() then replays what was found in them, and scans the
+	 * other values as usual.
+	 */
+	private void fuse(Object[] arguments) {
+		fused.reset();
+		for (int i = firstColumn; i < arguments.length; i++) {
+			if (arguments[i] == null || leafScanners[i] != null || converters[i] == null || caches[i] != null) {
+				continue;
+			}
+			long start = profile == null ? 0 : System.nanoTime();
+			Text value = convert(i, arguments[i]);
+			rowValues[i] = value;
+			fusedValues[i] = NOT_FUSED;
+			if (value.getLength() > fusedMaxLength || (window != null && window.isLong(value))) {
+				continue;
+			}
+			if (prefilter(value, columnFinders[i])) {
+				fusedValues[i] = fused.add(i, value, columnFinders[i], prefilter);
+			} else {
+				fusedValues[i] = NOTHING_ADMITTED;
+			}
+			if (profile != null) {
+				profile.valueScanned(i - firstColumn, value.getLength(), System.nanoTime() - start);
+			}
+		}
+		fused.scan(profile);
+	}
+
+	/**
+	 * @return false if the prefilter rules out every finder for value.
+	 */
+	private boolean prefilter(Text value, Finder[] finders) {
+		return prefilter == null || prefilter.scan(value.getBytes(), 0, value.getLength(), finders) > 0;
+	}
+
+	private boolean prefilter(String value, Finder[] finders) {
+		return prefilter == null || prefilter.scan(value, finders) > 0;
+	}
+
+	/**
+	 * Makes value the one the finders of {@link #matcher} run on.
+	 */
+	private void reset(Text value) {
+		if (profile == null) {
+			matcher.reset(value);
+			return;
+		}
+		long start = System.nanoTime();
+		matcher.reset(value);
+		profile.converted(System.nanoTime() - start);
+	}
+
+	private List<String> find(Finder finder) {
+		if (profile == null) {
+			return matcher.find(finder);
+		}
+		long start = System.nanoTime();
+		List<String> result = matcher.find(finder);
+		profile.finderRun(finder, System.nanoTime() - start, result.size());
+		return result;
+	}
+
+	private List<String> find(Finder finder, String value) {
+		if (profile == null) {
+			return finder.find(value);
+		}
+		long start = System.nanoTime();
+		List<String> result = finder.find(value);
+		profile.finderRun(finder, System.nanoTime() - start, result.size());
+		return result;
+	}
+
+	/**
+	 * Runs the finders on value, the ones the prefilter admitted if enabled.
+	 */
+	private long scan(String value, Finder[] finders, int fieldPos, CharSequence path,
+			MatchHandler handler) throws HiveException {
+		long matches = 0;
+		for (int k = 0; k < finders.length; k++) {
+			if (prefilter != null && !prefilter.admitted(k)) {
+				continue;
+			}
+			List<String> result = find(finders[k], value);
+			if (result.size() > 0) {
+				matches += result.size();
+				handler.matched(finders[k].getName(), result, fieldPos, path);
+			}
+		}
+		return matches;
+	}
+
+	private long scan(Text value, Finder[] finders, int fieldPos, CharSequence path,
+			MatchHandler handler) throws HiveException {
+		reset(value);
+		long matches = 0;
+		for (int k = 0; k < finders.length; k++) {
+			if (prefilter != null && !prefilter.admitted(k)) {
+				continue;
+			}
+			List<String> result = find(finders[k]);
+			if (result.size() > 0) {
+				matches += result.size();
+				handler.matched(finders[k].getName(), result, fieldPos, path);
+			}
+		}
+		return matches;
+	}
+
+	private static List<String>[] nothingFound(Finder[] finders) {
+		return newResults(finders.length);
+	}
+
+	/**
+	 * @return an array for what each of size finders found.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	static List<String>[] newResults(int size) {
+		return new List[size];
+	}
+
+	private List<String>[] find(Text value, Finder[] finders) {
+		if (window != null && window.isLong(value)) {
+			return window.find(value, finders, prefilter, profile);
+		}
+		reset(value);
+		List<String>[] found = nothingFound(finders);
+		for (int k = 0; k < finders.length; k++) {
+			if (prefilter != null && !prefilter.admitted(k)) {
+				continue;
+			}
+			List<String> result = find(finders[k]);
+			if (result.size() > 0) {
+				found[k] = result;
+			}
+		}
+		return found;
+	}
+
+	private List<String>[] find(String value, Finder[] finders) {
+		List<String>[] found = nothingFound(finders);
+		for (int k = 0; k < finders.length; k++) {
+			if (prefilter != null && !prefilter.admitted(k)) {
+				continue;
+			}
+			List<String> result = find(finders[k], value);
+			if (result.size() > 0) {
+				found[k] = result;
+			}
+		}
+		return found;
+	}
+
+	private static long replay(ResultCache.Results cached, int fieldPos, CharSequence path,
+			MatchHandler handler) throws HiveException {
+		return replay(cached.found, cached.finders, fieldPos, path, handler);
+	}
+
+	private static long replay(List<String>[] found, Finder[] finders, int fieldPos, CharSequence path,
+			MatchHandler handler) throws HiveException {
+		long matches = 0;
+		for (int k = 0; k < found.length; k++) {
+			if (found[k] != null) {
+				matches += found[k].size();
+				handler.matched(finders[k].getName(), found[k], fieldPos, path);
+			}
+		}
+		return matches;
+	}
+
+	private class MatchingLeafVisitor implements JsonConverter.LeafVisitor {
+		int fieldPos;
+		ResultCache cache;
+		MatchHandler handler;
+		long matches;
+
+		@Override
+		public void visitLeaf(CharSequence path, String value, Finder[] finders)
+				throws HiveException {
+			value = truncate(value);
+			totalSize += value.length();
+			long start = profile == null ? 0 : System.nanoTime();
+			ResultCache.Results cached = cache == null ? null : cache.get(value, finders);
+			if (cached != null) {
+				matches += replay(cached, fieldPos, path, handler);
+			} else if (cache != null) {
+				List<String>[] found = prefilter(value, finders) ? find(value, finders) : nothingFound(finders);
+				cache.put(value, finders, found);
+				matches += replay(found, finders, fieldPos, path, handler);
+			} else if (prefilter(value, finders)) {
+				matches += scan(value, finders, fieldPos, path, handler);
+			}
+			if (profile != null) {
+				profile.valueScanned(fieldPos, value.length(), System.nanoTime() - start);
+			}
+		}
+	}
+
+	private class SinkLeafVisitor implements JsonConverter.LeafVisitor {
+		int fieldPos;
+		ValueSink sink;
+
+		@Override
+		public void visitLeaf(CharSequence path, String value, Finder[] finders) {
+			value = truncate(value);
+			totalSize += value.length();
+			sink.leaf(fieldPos, path, value, finders);
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The time and CPU time a task may spend scanning, from its first row. Once
+ * either is used up the budget stays exhausted, and the rows after it are
+ * counted without being scanned. The clocks are read every few rows only.
+ *
+ * CPU time is the task thread's, plus the time of the scanning threads in
+ * pipelined mode; where the JVM does not measure the CPU time of threads,
+ * elapsed time is counted instead.
+ */
+public class ScanBudget {
+	static final Log LOG = LogFactory.getLog(ScanBudget.class);
+
+	public static final String TIME = "time";
+	public static final String CPU = "cpu";
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported()
+			&& THREADS.isThreadCpuTimeEnabled();
+
+	// the clocks are read once every this many rows
+	static final int CHECK_ROWS = 16;
+
+	private final long wallNanos;
+	private final long cpuNanos;
+	private long wallStart;
+	private long cpuStart;
+	private long rows;
+	// null until the budget is used up
+	private String exhausted;
+
+	/**
+	 * @param millis elapsed time, 0 for no bound.
+	 * @param cpuMillis CPU time, 0 for no bound.
+	 */
+	public ScanBudget(long millis, long cpuMillis) {
+		this.wallNanos = millis * 1000000L;
+		this.cpuNanos = cpuMillis * 1000000L;
+	}
+
+	/**
+	 * Called before each row.
+	 * @param otherCpuNanos CPU time spent scanning on other threads so far.
+	 * @return true if the row is not to be scanned.
+	 */
+	public boolean isExhausted(long otherCpuNanos) {
+		if (exhausted != null) {
+			return true;
+		}
+		if (rows++ == 0) {
+			wallStart = System.nanoTime();
+			cpuStart = cpuNanos();
+			return false;
+		}
+		if (rows % CHECK_ROWS != 0) {
+			return false;
+		}
+		if (wallNanos > 0 && System.nanoTime() - wallStart >= wallNanos) {
+			exhausted = TIME;
+		} else if (cpuNanos > 0 && cpuNanos() - cpuStart + otherCpuNanos >= cpuNanos) {
+			exhausted = CPU;
+		} else {
+			return false;
+		}
+		LOG.info("The " + exhausted + " budget ran out after " + (rows - 1) + " rows, counting the others only");
+		return true;
+	}
+
+	/**
+	 * @return what ran out, {@link #TIME} or {@link #CPU}, null if nothing.
+	 */
+	public String getExhausted() {
+		return exhausted;
+	}
+
+	private static long cpuNanos() {
+		return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+
+import io.dataapps.chlorine.finder.Finder;
+
+/**
+ * Column classification variant of {@link ScanUDF}:
+ * <code>scan_classify(confirm_hits, ruleout_values, cols...)</code>.
+ *
+ * A type is confirmed for a column once confirm_hits of its values matched,
+ * and ruled out once ruleout_values non-null values were scanned without a
+ * single match (0 never rules a type out). A type which matched any value
+ * is never ruled out: it stays undecided until it is confirmed or the rows
+ * run out, however rare its matches. A settled type is no longer run on its column, and once
+ * every column is settled the remaining rows are only counted, in RowsSeen
+ * and TotalRecords. Instead of a
+ * row per finding, close() emits one verdict row per column and type:
+ * CONFIRMED, RULED_OUT or UNDECIDED, with the number of matching values.
+ */
+public class ScanClassifyUDF extends ScanUDF {
+
+	static final String CONFIRMED = "CONFIRMED";
+	static final String RULED_OUT = "RULED_OUT";
+	static final String UNDECIDED = "UNDECIDED";
+
+	private long confirmHits;
+	private long ruleOutValues;
+	long rowsSeen = 0;
+	private int undecided;
+
+	// per fieldpos, per finder initially planned for the column
+	private Finder[][] finders;
+	private long[][] matchedValues;
+	// the non-null values scanned which did not match
+	private long[][] cleanValues;
+	// the row last counted in matchedValues
+	private long[][] lastMatchedRow;
+	private String[][] verdicts;
+
+	@Override
+	public StructObjectInspector initialize(ObjectInspector[] arguments)
+			throws UDFArgumentException {
+		if (arguments.length < 3) {
+			throw new UDFArgumentException("scan_classify(confirm_hits, ruleout_values, cols...) takes at least 3 arguments");
+		}
+		confirmHits = getLong(arguments, 0);
+		if (confirmHits <= 0) {
+			throw new UDFArgumentException("confirm_hits must be positive, got " + confirmHits);
+		}
+		ruleOutValues = getLong(arguments, 1);
+		StructObjectInspector output = initialize(arguments, 2);
+
+		RowScanner scanner = getScanner();
+		int columns = scanner.getColumnCount();
+		finders = new Finder[columns][];
+		matchedValues = new long[columns][];
+		cleanValues = new long[columns][];
+		lastMatchedRow = new long[columns][];
+		verdicts = new String[columns][];
+		undecided = 0;
+		for (int fieldPos = 0; fieldPos < columns; fieldPos++) {
+			finders[fieldPos] = scanner.getFinders(fieldPos);
+			int count = finders[fieldPos].length;
+			matchedValues[fieldPos] = new long[count];
+			cleanValues[fieldPos] = new long[count];
+			lastMatchedRow[fieldPos] = new long[count];
+			verdicts[fieldPos] = new String[count];
+			for (int k = 0; k < count; k++) {
+				lastMatchedRow[fieldPos][k] = -1;
+				verdicts[fieldPos][k] = UNDECIDED;
+			}
+			undecided += count;
+		}
+		return output;
+	}
+
+	private static long getLong(ObjectInspector[] arguments, int i) throws UDFArgumentException {
+		Object value = null;
+		if (arguments[i] instanceof ConstantObjectInspector
+				&& arguments[i].getCategory() == Category.PRIMITIVE) {
+			value = ((ConstantObjectInspector) arguments[i]).getWritableConstantValue();
+		}
+		if (value == null) {
+			throw new UDFArgumentException("argument " + (i + 1) + " of scan_classify must be a constant number");
+		}
+		return PrimitiveObjectInspectorUtils.getLong(value, (PrimitiveObjectInspector) arguments[i]);
+	}
+
+	// the matches of a row decide the finders run on the next ones
+	@Override
+	protected boolean canPipeline() {
+		return false;
+	}
+
+	// verdicts stop finders, and depend on all the rows before
+	@Override
+	protected boolean canReplay() {
+		return false;
+	}
+
+	@Override
+	public void process(Object[] arguments) throws HiveException {
+		rowsSeen++;
+		if (undecided == 0) {
+			passedRecords++;
+			return;
+		}
+		long row = totalRecords;
+		super.process(arguments);
+		if (totalRecords == row) {
+			// skipped, the budget ran out
+			return;
+		}
+
+		RowScanner scanner = getScanner();
+		for (int fieldPos = 0; fieldPos < finders.length; fieldPos++) {
+			if (scanner.getValue(arguments, fieldPos) == null) {
+				continue;
+			}
+			String[] columnVerdicts = verdicts[fieldPos];
+			for (int k = 0; k < columnVerdicts.length; k++) {
+				if (columnVerdicts[k] != UNDECIDED) {
+					continue;
+				}
+				if (lastMatchedRow[fieldPos][k] != row) {
+					cleanValues[fieldPos][k]++;
+				}
+				if (matchedValues[fieldPos][k] >= confirmHits) {
+					settle(fieldPos, k, CONFIRMED);
+				} else if (ruleOutValues > 0 && matchedValues[fieldPos][k] == 0
+						&& cleanValues[fieldPos][k] >= ruleOutValues) {
+					settle(fieldPos, k, RULED_OUT);
+				}
+			}
+		}
+	}
+
+	private void settle(int fieldPos, int k, String verdict) {
+		verdicts[fieldPos][k] = verdict;
+		getScanner().removeFinder(fieldPos, finders[fieldPos][k]);
+		undecided--;
+	}
+
+	@Override
+	public void matched(String type, List<String> result, int fieldPos, CharSequence path) {
+		Finder[] columnFinders = finders[fieldPos];
+		for (int k = 0; k < columnFinders.length; k++) {
+			if (columnFinders[k].getName().equals(type)) {
+				if (lastMatchedRow[fieldPos][k] != totalRecords) {
+					lastMatchedRow[fieldPos][k] = totalRecords;
+					matchedValues[fieldPos][k]++;
+				}
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws HiveException {
+		super.close();
+		forward("RowsSeen", rowsSeen, -2, "", "");
+		for (int fieldPos = 0; fieldPos < finders.length; fieldPos++) {
+			for (int k = 0; k < finders[fieldPos].length; k++) {
+				forward(finders[fieldPos][k].getName(), matchedValues[fieldPos][k], fieldPos,
+						verdicts[fieldPos][k], String.valueOf(fieldPos));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.session.SessionState;
+
+/**
+ * Tuning of the scan functions, read from the job configuration so that it
+ * can be changed with <code>set</code> in a Hive session. Options which do not
+ * change the output schema only; the defaults apply when the function runs
+ * outside of a task.
+ */
+public class ScanOptions {
+
+	/** entries of the per-column result cache, 0 disables the cache */
+	public static final String CACHE_ENTRIES = "chlorine.scan.cache.entries";
+	/** estimated heap used by the result cache of one column */
+	public static final String CACHE_BYTES = "chlorine.scan.cache.bytes";
+	/** longer values are always scanned and never cached */
+	public static final String CACHE_MAX_VALUE_LENGTH = "chlorine.scan.cache.max.value.length";
+
+	/** time conversion and finders, published as counters of the task */
+	public static final String PROFILE = "chlorine.scan.profile";
+	/** also emit the profile as rows of the scan output */
+	public static final String PROFILE_ROWS = "chlorine.scan.profile.rows";
+
+	/** skip the finders a value cannot match, on by default */
+	public static final String PREFILTER = "chlorine.scan.prefilter";
+
+	/** values longer than this many bytes are scanned in windows of this many chars, 0 never */
+	public static final String WINDOW_SIZE = "chlorine.scan.window.size";
+	/** chars shared by consecutive windows, the longest match expected */
+	public static final String WINDOW_OVERLAP = "chlorine.scan.window.overlap";
+
+	/** scan the short primitive values of a row together, see {@link FusedScanner} */
+	public static final String FUSED = "chlorine.scan.fused";
+	/** longer values are scanned on their own in fused mode */
+	public static final String FUSED_MAX_VALUE_LENGTH = "chlorine.scan.fused.max.value.length";
+
+	/** milliseconds a task may scan for from its first row, after which rows are only counted, 0 unbounded */
+	public static final String BUDGET_MILLIS = "chlorine.scan.budget.millis";
+	/** milliseconds of CPU time a task may scan for, after which rows are only counted, 0 unbounded */
+	public static final String BUDGET_CPU_MILLIS = "chlorine.scan.budget.cpu.millis";
+	/** longer values are cut to this many bytes, or chars for the leaves of complex columns, 0 never */
+	public static final String MAX_VALUE_BYTES = "chlorine.scan.max.value.bytes";
+
+	/** a directory keeping the results of the input files scanned, for later scans to replay, see {@link ResultsStore} */
+	public static final String RESULTS_STORE = "chlorine.scan.results.store";
+	/** names the scan in the results store in place of the text of the query */
+	public static final String RESULTS_KEY = "chlorine.scan.results.key";
+	/** the bytes of an input file whose results are stored and replayed as one */
+	public static final String RESULTS_RANGE_BYTES = "chlorine.scan.results.range.bytes";
+
+	/** how the values found are listed in the output, raw, fingerprint or none, see {@link MatchValues} */
+	public static final String OUTPUT_VALUES = "chlorine.scan.output.values";
+	/** values listed per output row at most, the count has them all, 0 lists all */
+	public static final String OUTPUT_MAX_VALUES = "chlorine.scan.output.max.values";
+	/** hex chars of the 64-bit hash kept in a fingerprint, 16 at most */
+	public static final String OUTPUT_FINGERPRINT_CHARS = "chlorine.scan.output.fingerprint.chars";
+	/** the secret seed of the fingerprints, such as the one of a known value dictionary, required for them */
+	public static final String OUTPUT_FINGERPRINT_SEED = "chlorine.scan.output.fingerprint.seed";
+
+	/** a finder definition file, run instead of the built-in finders */
+	public static final String FINDERS_FILE = "chlorine.finders.file";
+	/** also run the built-in finders along with the ones of a file */
+	public static final String FINDERS_DEFAULTS = "chlorine.finders.defaults";
+	/** give each thread its own engines, for finders which are not thread safe */
+	public static final String FINDERS_PER_THREAD = "chlorine.finders.per.thread";
+	/** dictionaries of known values, comma separated, run along with the other finders, see {@link KnownValueFinder} */
+	public static final String FINDERS_KNOWN_VALUES = "chlorine.finders.known.values";
+
+	/** threads scanning rows while the task thread converts the next ones, 0 scans on the task thread */
+	public static final String THREADS = "chlorine.scan.threads";
+	/** rows queued for the scanning threads at most */
+	public static final String PIPELINE_ROWS = "chlorine.scan.pipeline.rows";
+	/** estimated bytes of the values queued for the scanning threads at most */
+	public static final String PIPELINE_BYTES = "chlorine.scan.pipeline.bytes";
+
+	/** distinct values of an ORC dictionary scanned once each by {@link FileScanner}, larger ones row by row */
+	public static final String DICTIONARY_ENTRIES = "chlorine.scan.dictionary.entries";
+
+	final Configuration conf;
+	final int cacheEntries;
+	final long cacheBytes;
+	final int cacheMaxValueLength;
+	final boolean prefilter;
+	final boolean profile;
+	final boolean profileRows;
+	final int windowSize;
+	final int windowOverlap;
+	final boolean fused;
+	final int fusedMaxValueLength;
+	final long budgetMillis;
+	final long budgetCpuMillis;
+	final int maxValueBytes;
+	final String resultsStore;
+	final String resultsKey;
+	final long resultsRangeBytes;
+	final String outputValues;
+	final int outputMaxValues;
+	final int outputFingerprintChars;
+	// null if not set
+	final Long outputFingerprintSeed;
+	final int threads;
+	final long pipelineRows;
+	final long pipelineBytes;
+	final String findersFile;
+	final boolean findersDefaults;
+	final boolean findersPerThread;
+	final String[] findersKnownValues;
+	final int dictionaryEntries;
+
+	public ScanOptions(Configuration conf) {
+		if (conf == null) {
+			conf = new Configuration(false);
+		}
+		this.conf = conf;
+		cacheEntries = conf.getInt(CACHE_ENTRIES, 0);
+		cacheBytes = conf.getLong(CACHE_BYTES, 8L << 20);
+		cacheMaxValueLength = conf.getInt(CACHE_MAX_VALUE_LENGTH, 1024);
+		prefilter = conf.getBoolean(PREFILTER, true);
+		profile = conf.getBoolean(PROFILE, false);
+		profileRows = conf.getBoolean(PROFILE_ROWS, false);
+		windowSize = conf.getInt(WINDOW_SIZE, 1 << 20);
+		windowOverlap = conf.getInt(WINDOW_OVERLAP, 4096);
+		fused = conf.getBoolean(FUSED, false);
+		fusedMaxValueLength = conf.getInt(FUSED_MAX_VALUE_LENGTH, 256);
+		budgetMillis = conf.getLong(BUDGET_MILLIS, 0);
+		budgetCpuMillis = conf.getLong(BUDGET_CPU_MILLIS, 0);
+		maxValueBytes = conf.getInt(MAX_VALUE_BYTES, 0);
+		String store = conf.getTrimmed(RESULTS_STORE);
+		resultsStore = store == null || store.isEmpty() ? null : store;
+		String key = conf.getTrimmed(RESULTS_KEY);
+		resultsKey = key == null || key.isEmpty() ? conf.get(HiveConf.ConfVars.HIVEQUERYSTRING.varname) : key;
+		resultsRangeBytes = Math.max(1, conf.getLong(RESULTS_RANGE_BYTES, 64L << 20));
+		outputValues = conf.getTrimmed(OUTPUT_VALUES, MatchValues.RAW);
+		outputMaxValues = conf.getInt(OUTPUT_MAX_VALUES, 0);
+		outputFingerprintChars = conf.getInt(OUTPUT_FINGERPRINT_CHARS, 16);
+		String seed = conf.getTrimmed(OUTPUT_FINGERPRINT_SEED);
+		outputFingerprintSeed = seed == null || seed.isEmpty() ? null : Long.valueOf(seed);
+		threads = conf.getInt(THREADS, 0);
+		pipelineRows = conf.getLong(PIPELINE_ROWS, 1024);
+		pipelineBytes = conf.getLong(PIPELINE_BYTES, 64L << 20);
+		String file = conf.getTrimmed(FINDERS_FILE);
+		findersFile = file == null || file.isEmpty() ? null : file;
+		findersDefaults = conf.getBoolean(FINDERS_DEFAULTS, false);
+		findersPerThread = conf.getBoolean(FINDERS_PER_THREAD, false);
+		findersKnownValues = conf.getTrimmedStrings(FINDERS_KNOWN_VALUES);
+		dictionaryEntries = conf.getInt(DICTIONARY_ENTRIES, 1 << 16);
+	}
+
+	public static ScanOptions from(MapredContext context) {
+		return new ScanOptions(context == null ? null : context.getJobConf());
+	}
+
+	/**
+	 * @return the options set in the Hive session, names and values in turn,
+	 * for what is serialized with the plan when the query is compiled and
+	 * never sees the job configuration; none outside of a session.
+	 */
+	static String[] sessionSettings() {
+		SessionState session = SessionState.get();
+		if (session == null || session.getConf() == null) {
+			return new String[0];
+		}
+		Map<String, String> set = session.getConf().getValByRegex("^chlorine\\.");
+		String[] settings = new String[2 * set.size()];
+		int i = 0;
+		for (Map.Entry<String, String> entry : set.entrySet()) {
+			settings[i++] = entry.getKey();
+			settings[i++] = entry.getValue();
+		}
+		return settings;
+	}
+
+	/**
+	 * @return the options of settings, see {@link #sessionSettings()}; the
+	 * defaults if null.
+	 */
+	static ScanOptions of(String[] settings) {
+		Configuration conf = new Configuration(false);
+		if (settings != null) {
+			for (int i = 0; i + 1 < settings.length; i += 2) {
+				conf.set(settings[i], settings[i + 1]);
+			}
+		}
+		return new ScanOptions(conf);
+	}
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+/**
+ * {@link ScanUDF} with a fifth output column, path, locating the values
+ * inside their column: the nested path of the string leaf for STRUCT, MAP
+ * and ARRAY columns, eg: <code>3.address.lines[1]</code>, the field position
+ * for other columns. A function of its own so that the four columns of
+ * <code>scan</code> stay as they are for existing queries.
+ */
+public class ScanPathsUDF extends ScanUDF {
+
+	@Override
+	protected boolean hasPath() {
+		return true;
+	}
+
+}
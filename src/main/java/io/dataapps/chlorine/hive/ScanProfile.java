@@ -0,0 +1,225 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.mapred.Reporter;
+
+import io.dataapps.chlorine.finder.Finder;
+
+/**
+ * Where a {@link RowScanner} spends its time: nanoseconds converting values
+ * to text and running each finder, matches per finder, bytes per column, and
+ * a histogram of the time taken by each scanned value. Only collected when
+ * profiling is enabled, the scanner does not time anything otherwise.
+ */
+public class ScanProfile {
+
+	public static final String COUNTER_GROUP = "Chlorine Scan";
+	// Hadoop limits the number of counters of a job, wide tables get rows only
+	static final int MAX_COLUMN_COUNTERS = 16;
+
+	public static class FinderStats {
+		long nanos;
+		long values;
+		long matches;
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		public long getValues() {
+			return values;
+		}
+
+		public long getMatches() {
+			return matches;
+		}
+	}
+
+	/**
+	 * Log-linear histogram of latencies: 8 buckets per power of 2, so that a
+	 * percentile is reported within 12.5% of its value.
+	 */
+	static class LatencyHistogram {
+		private static final int SUB_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+		private final long[] counts = new long[64 << SUB_BITS];
+		private long total;
+
+		void record(long nanos) {
+			counts[index(Math.max(nanos, 0))]++;
+			total++;
+		}
+
+		static int index(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+			int exp = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+			return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+		}
+
+		static long upperBound(int index) {
+			if (index < SUB_BUCKETS) {
+				return index;
+			}
+			int shift = (index >> SUB_BITS) - 1;
+			long lower = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+			return lower + (1L << shift) - 1;
+		}
+
+		void add(LatencyHistogram other) {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += other.counts[i];
+			}
+			total += other.total;
+		}
+
+		/**
+		 * @return the value below which a fraction q of the recorded values
+		 * fall, 0 if none was recorded.
+		 */
+		long percentile(double q) {
+			long target = (long) Math.ceil(q * total);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= target && seen > 0) {
+					return upperBound(i);
+				}
+			}
+			return 0;
+		}
+	}
+
+	private final long[] columnBytes;
+	private final Map<Finder, FinderStats> finders = new LinkedHashMap<>();
+	private final LatencyHistogram valueNanos = new LatencyHistogram();
+	private long conversionNanos;
+
+	public ScanProfile(int columns) {
+		columnBytes = new long[columns];
+	}
+
+	void converted(long nanos) {
+		conversionNanos += nanos;
+	}
+
+	void finderRun(Finder finder, long nanos, int matches) {
+		finderRun(finder, nanos, 1, matches);
+	}
+
+	/**
+	 * Records a run of finder over several values at once.
+	 */
+	void finderRun(Finder finder, long nanos, int values, int matches) {
+		FinderStats stats = finders.get(finder);
+		if (stats == null) {
+			stats = new FinderStats();
+			finders.put(finder, stats);
+		}
+		stats.nanos += nanos;
+		stats.values += values;
+		stats.matches += matches;
+	}
+
+	void valueScanned(int fieldPos, long bytes, long nanos) {
+		columnBytes[fieldPos] += bytes;
+		valueNanos.record(nanos);
+	}
+
+	/**
+	 * Adds the profile of another thread scanning for the same function.
+	 */
+	void add(ScanProfile other) {
+		conversionNanos += other.conversionNanos;
+		for (Map.Entry<Finder, FinderStats> entry : other.finders.entrySet()) {
+			FinderStats stats = finders.get(entry.getKey());
+			if (stats == null) {
+				stats = new FinderStats();
+				finders.put(entry.getKey(), stats);
+			}
+			stats.nanos += entry.getValue().nanos;
+			stats.values += entry.getValue().values;
+			stats.matches += entry.getValue().matches;
+		}
+		for (int i = 0; i < columnBytes.length; i++) {
+			columnBytes[i] += other.columnBytes[i];
+		}
+		valueNanos.add(other.valueNanos);
+	}
+
+	public long getConversionNanos() {
+		return conversionNanos;
+	}
+
+	/**
+	 * @return the time spent in finders, over all of them.
+	 */
+	public long getMatchingNanos() {
+		long nanos = 0;
+		for (FinderStats stats : finders.values()) {
+			nanos += stats.nanos;
+		}
+		return nanos;
+	}
+
+	public Map<Finder, FinderStats> getFinderStats() {
+		return finders;
+	}
+
+	public long getColumnBytes(int fieldPos) {
+		return columnBytes[fieldPos];
+	}
+
+	public int getColumnCount() {
+		return columnBytes.length;
+	}
+
+	/**
+	 * @param q fraction between 0 and 1, e.g. 0.99
+	 * @return the time taken to scan a value, at percentile q.
+	 */
+	public long getValueNanos(double q) {
+		return valueNanos.percentile(q);
+	}
+
+	/**
+	 * Adds the profile to the counters of the task.
+	 */
+	public void publish(Reporter reporter) {
+		reporter.incrCounter(COUNTER_GROUP, "Conversion nanos", conversionNanos);
+		reporter.incrCounter(COUNTER_GROUP, "Matching nanos", getMatchingNanos());
+		for (Map.Entry<Finder, FinderStats> entry : finders.entrySet()) {
+			String name = entry.getKey().getName();
+			reporter.incrCounter(COUNTER_GROUP, name + " nanos", entry.getValue().nanos);
+			reporter.incrCounter(COUNTER_GROUP, name + " matches", entry.getValue().matches);
+		}
+		for (int i = 0; i < Math.min(columnBytes.length, MAX_COLUMN_COUNTERS); i++) {
+			reporter.incrCounter(COUNTER_GROUP, "Column " + i + " bytes", columnBytes[i]);
+		}
+		// percentiles do not add up, the job total divided by the number of
+		// tasks is the mean of the task percentiles
+		reporter.incrCounter(COUNTER_GROUP, "Value p50 nanos", getValueNanos(0.5));
+		reporter.incrCounter(COUNTER_GROUP, "Value p99 nanos", getValueNanos(0.99));
+	}
+
+}
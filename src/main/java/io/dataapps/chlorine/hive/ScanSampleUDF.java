@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+
+/**
+ * Sampling variant of {@link ScanUDF}:
+ * <code>scan_sample(rate, max_rows_per_task, cols...)</code>.
+ *
+ * Every row is picked with probability rate (Bernoulli sampling) until
+ * max_rows_per_task rows have been scanned. Rows which are not picked are
+ * neither converted nor matched, and only counted in TotalRecords. Besides the rows of {@link ScanUDF},
+ * close() reports the rows seen and scanned and, per column and type, the
+ * estimated share of rows which match, with a 95% Wilson score interval.
+ */
+public class ScanSampleUDF extends ScanUDF {
+
+	private static final double Z = 1.96;
+
+	private double rate;
+	private long maxRows;
+	private Random random;
+	long rowsSeen = 0;
+	// rows of the sample in which a type matched, by type and fieldpos
+	private final Map<String, RowCount[]> matchedRowsByType = new LinkedHashMap<>();
+
+	private static class RowCount {
+		long rows;
+		// the row last counted, a row is counted once however many leaves match
+		long lastRow = -1;
+	}
+
+	@Override
+	public StructObjectInspector initialize(ObjectInspector[] arguments)
+			throws UDFArgumentException {
+		if (arguments.length < 3) {
+			throw new UDFArgumentException("scan_sample(rate, max_rows_per_task, cols...) takes at least 3 arguments");
+		}
+		rate = PrimitiveObjectInspectorUtils.getDouble(getConstant(arguments, 0),
+				(PrimitiveObjectInspector) arguments[0]);
+		if (!(rate > 0 && rate <= 1)) {
+			throw new UDFArgumentException("rate must be in (0, 1], got " + rate);
+		}
+		maxRows = PrimitiveObjectInspectorUtils.getLong(getConstant(arguments, 1),
+				(PrimitiveObjectInspector) arguments[1]);
+		if (maxRows <= 0) {
+			maxRows = Long.MAX_VALUE;
+		}
+		random = new Random();
+		return initialize(arguments, 2);
+	}
+
+	private static Object getConstant(ObjectInspector[] arguments, int i)
+			throws UDFArgumentException {
+		if (!(arguments[i] instanceof ConstantObjectInspector)
+				|| arguments[i].getCategory() != Category.PRIMITIVE) {
+			throw new UDFArgumentException("argument " + (i + 1) + " of scan_sample must be a constant number");
+		}
+		Object value = ((ConstantObjectInspector) arguments[i]).getWritableConstantValue();
+		if (value == null) {
+			throw new UDFArgumentException("argument " + (i + 1) + " of scan_sample must not be null");
+		}
+		return value;
+	}
+
+	// the matches of a row decide whether the next one is scanned
+	@Override
+	protected boolean canPipeline() {
+		return false;
+	}
+
+	// a sample differs from one scan to the next
+	@Override
+	protected boolean canReplay() {
+		return false;
+	}
+
+	@Override
+	public void process(Object[] arguments) throws HiveException {
+		rowsSeen++;
+		if (totalRecords >= maxRows || (rate < 1 && random.nextDouble() >= rate)) {
+			passedRecords++;
+			return;
+		}
+		super.process(arguments);
+	}
+
+	@Override
+	public void matched(String type, List<String> result, int fieldPos, CharSequence path)
+			throws HiveException {
+		RowCount[] counts = matchedRowsByType.get(type);
+		if (counts == null) {
+			counts = new RowCount[getColumnCount()];
+			matchedRowsByType.put(type, counts);
+		}
+		RowCount count = counts[fieldPos];
+		if (count == null) {
+			count = new RowCount();
+			counts[fieldPos] = count;
+		}
+		if (count.lastRow != totalRecords) {
+			count.lastRow = totalRecords;
+			count.rows++;
+		}
+		super.matched(type, result, fieldPos, path);
+	}
+
+	@Override
+	public void close() throws HiveException {
+		super.close();
+		forward("RowsSeen", rowsSeen, -2, "", "");
+		forward("RowsScanned", totalRecords, -2, "", "");
+		int columns = getColumnCount();
+		for (int fieldPos = 0; fieldPos < columns; fieldPos++) {
+			if (!isScanned(fieldPos)) {
+				continue;
+			}
+			boolean anyMatch = false;
+			for (Map.Entry<String, RowCount[]> entry : matchedRowsByType.entrySet()) {
+				RowCount count = entry.getValue()[fieldPos];
+				if (count != null) {
+					anyMatch = true;
+					forwardMatchRate(entry.getKey(), count.rows, fieldPos);
+				}
+			}
+			if (!anyMatch) {
+				// the upper bound still tells how rare matches must be
+				forwardMatchRate("Any", 0, fieldPos);
+			}
+		}
+	}
+
+	private void forwardMatchRate(String type, long matchedRows, int fieldPos)
+			throws HiveException {
+		long n = totalRecords;
+		double estimate = n == 0 ? 0 : (double) matchedRows / n;
+		double low = 0;
+		double high = 1;
+		if (n > 0) {
+			double z2 = Z * Z;
+			double denominator = 1 + z2 / n;
+			double center = (estimate + z2 / (2 * n)) / denominator;
+			double halfWidth = Z * Math.sqrt(estimate * (1 - estimate) / n + z2 / (4.0 * n * n)) / denominator;
+			low = Math.max(0, center - halfWidth);
+			high = Math.min(1, center + halfWidth);
+		}
+		forward("MatchRate", matchedRows, fieldPos,
+				String.format(Locale.ROOT, "%s,%.6f,%.6f,%.6f", type, estimate, low, high),
+				String.valueOf(fieldPos));
+	}
+
+}
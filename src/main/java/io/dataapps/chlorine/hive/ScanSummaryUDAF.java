@@ -0,0 +1,317 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hive.common.util.Murmur3;
+
+
+/**
+ * Aggregate counterpart of {@link ScanUDF}: <code>scan_summary(cols...)</code>.
+ *
+ * Rows are matched exactly as ScanUDF does, but instead of one output row
+ * per finding the results are folded, per type and column, into counters
+ * which are merged map side. The result is an array with one struct per
+ * type and column that matched:
+ * <code>type, fieldpos, count, matchedrecords, distinct, samples, records</code>,
+ * where distinct is a HyperLogLog estimate of the distinct values found and
+ * samples holds a few of them. Use <code>inline()</code> to turn it into rows.
+ */
+public class ScanSummaryUDAF extends AbstractGenericUDAFResolver {
+	static final Log LOG = LogFactory.getLog(ScanSummaryUDAF.class);
+
+	static final int MAX_SAMPLES = 5;
+	static final int MAX_SAMPLE_LENGTH = 256;
+
+	@Override
+	public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+		if (parameters.length == 0) {
+			throw new UDFArgumentLengthException("scan_summary takes at least one column");
+		}
+		return new ScanSummaryEvaluator();
+	}
+
+	public static class ScanSummaryEvaluator extends GenericUDAFEvaluator {
+
+		// PARTIAL1 and COMPLETE: the original columns
+		private transient RowScanner scanner;
+		// PARTIAL2 and FINAL: the serialized partial aggregation
+		private transient BinaryObjectInspector partialOI;
+		private transient DataOutputBuffer output;
+		private transient DataInputBuffer input;
+		private transient MapredContext context;
+
+		@Override
+		public void configure(MapredContext context) {
+			this.context = context;
+		}
+
+		@Override
+		public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+			super.init(m, parameters);
+			if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+				scanner = new RowScanner(parameters, 0, ScanOptions.from(context));
+			} else {
+				partialOI = (BinaryObjectInspector) parameters[0];
+				input = new DataInputBuffer();
+			}
+			if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+				output = new DataOutputBuffer();
+				return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+			}
+
+			List<String> fieldNames = new ArrayList<>();
+			List<ObjectInspector> fieldOIs = new ArrayList<>();
+			fieldNames.add("type");
+			fieldOIs.add(PrimitiveObjectInspectorFactory.javaStringObjectInspector);
+			fieldNames.add("fieldpos");
+			fieldOIs.add(PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+			fieldNames.add("count");
+			fieldOIs.add(PrimitiveObjectInspectorFactory.javaLongObjectInspector);
+			fieldNames.add("matchedrecords");
+			fieldOIs.add(PrimitiveObjectInspectorFactory.javaLongObjectInspector);
+			fieldNames.add("distinct");
+			fieldOIs.add(PrimitiveObjectInspectorFactory.javaLongObjectInspector);
+			fieldNames.add("samples");
+			fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
+					PrimitiveObjectInspectorFactory.javaStringObjectInspector));
+			fieldNames.add("records");
+			fieldOIs.add(PrimitiveObjectInspectorFactory.javaLongObjectInspector);
+			return ObjectInspectorFactory.getStandardListObjectInspector(
+					ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs));
+		}
+
+		@Override
+		public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+			return new SummaryBuffer();
+		}
+
+		@Override
+		public void reset(AggregationBuffer agg) throws HiveException {
+			((SummaryBuffer) agg).reset();
+		}
+
+		@Override
+		public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+			SummaryBuffer buffer = (SummaryBuffer) agg;
+			if (buffer.columns < 0) {
+				buffer.columns = scanner.getColumnCount();
+			}
+			scanner.scan(parameters, buffer);
+			buffer.records++;
+		}
+
+		@Override
+		public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+			try {
+				output.reset();
+				((SummaryBuffer) agg).write(output);
+				return new BytesWritable(Arrays.copyOf(output.getData(), output.getLength()));
+			} catch (IOException e) {
+				throw new HiveException(e);
+			}
+		}
+
+		@Override
+		public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+			if (partial == null) {
+				return;
+			}
+			BytesWritable bytes = partialOI.getPrimitiveWritableObject(partial);
+			try {
+				input.reset(bytes.getBytes(), bytes.getLength());
+				((SummaryBuffer) agg).merge(input);
+			} catch (IOException e) {
+				throw new HiveException(e);
+			}
+		}
+
+		@Override
+		public Object terminate(AggregationBuffer agg) throws HiveException {
+			SummaryBuffer buffer = (SummaryBuffer) agg;
+			List<Object[]> result = new ArrayList<>();
+			for (int i = 0; i < buffer.slots.length; i++) {
+				Slot slot = buffer.slots[i];
+				if (slot != null) {
+					result.add(new Object[] {buffer.types.get(i / buffer.columns), i % buffer.columns,
+							slot.count, slot.matchedRecords, slot.distinct.estimate(),
+							slot.samples, buffer.records});
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Counters of one type in one column.
+	 */
+	static class Slot {
+		long count;
+		long matchedRecords;
+		// the record last counted in matchedRecords
+		long lastRecord = -1;
+		final HyperLogLog distinct = new HyperLogLog();
+		final List<String> samples = new ArrayList<>(MAX_SAMPLES);
+
+		void addSample(String value) {
+			if (samples.size() < MAX_SAMPLES && !samples.contains(value)) {
+				samples.add(value);
+			}
+		}
+	}
+
+	@GenericUDAFEvaluator.AggregationType(estimable = true)
+	static class SummaryBuffer extends GenericUDAFEvaluator.AbstractAggregationBuffer
+			implements RowScanner.MatchHandler {
+		long records;
+		int columns;
+		final List<String> types = new ArrayList<>();
+		final Map<String, Integer> typeIndex = new HashMap<>();
+		// indexed by type index * columns + fieldpos
+		Slot[] slots;
+
+		SummaryBuffer() {
+			reset();
+		}
+
+		void reset() {
+			records = 0;
+			columns = -1;
+			types.clear();
+			typeIndex.clear();
+			slots = new Slot[0];
+		}
+
+		private Slot slot(String type, int fieldPos) {
+			Integer index = typeIndex.get(type);
+			if (index == null) {
+				index = types.size();
+				types.add(type);
+				typeIndex.put(type, index);
+				slots = Arrays.copyOf(slots, types.size() * columns);
+			}
+			int i = index * columns + fieldPos;
+			if (slots[i] == null) {
+				slots[i] = new Slot();
+			}
+			return slots[i];
+		}
+
+		@Override
+		public void matched(String type, List<String> result, int fieldPos, CharSequence path) {
+			Slot slot = slot(type, fieldPos);
+			slot.count += result.size();
+			if (slot.lastRecord != records) {
+				slot.lastRecord = records;
+				slot.matchedRecords++;
+			}
+			for (String value : result) {
+				slot.distinct.add(Murmur3.hash64(value.getBytes(StandardCharsets.UTF_8)));
+				slot.addSample(value.length() > MAX_SAMPLE_LENGTH ? value.substring(0, MAX_SAMPLE_LENGTH) : value);
+			}
+		}
+
+		void write(DataOutputBuffer out) throws IOException {
+			out.writeLong(records);
+			out.writeInt(columns);
+			out.writeInt(types.size());
+			for (String type : types) {
+				out.writeUTF(type);
+			}
+			int used = 0;
+			for (Slot slot : slots) {
+				if (slot != null) {
+					used++;
+				}
+			}
+			out.writeInt(used);
+			for (int i = 0; i < slots.length; i++) {
+				Slot slot = slots[i];
+				if (slot == null) {
+					continue;
+				}
+				out.writeInt(i);
+				out.writeLong(slot.count);
+				out.writeLong(slot.matchedRecords);
+				slot.distinct.write(out);
+				out.writeInt(slot.samples.size());
+				for (String sample : slot.samples) {
+					out.writeUTF(sample);
+				}
+			}
+		}
+
+		void merge(DataInputBuffer in) throws IOException {
+			records += in.readLong();
+			int partialColumns = in.readInt();
+			if (columns < 0) {
+				columns = partialColumns;
+			}
+			String[] partialTypes = new String[in.readInt()];
+			for (int t = 0; t < partialTypes.length; t++) {
+				partialTypes[t] = in.readUTF();
+			}
+			HyperLogLog distinct = new HyperLogLog();
+			int used = in.readInt();
+			for (int s = 0; s < used; s++) {
+				int i = in.readInt();
+				Slot slot = slot(partialTypes[i / partialColumns], i % partialColumns);
+				slot.count += in.readLong();
+				slot.matchedRecords += in.readLong();
+				distinct.readFields(in);
+				slot.distinct.merge(distinct);
+				int samples = in.readInt();
+				for (int k = 0; k < samples; k++) {
+					slot.addSample(in.readUTF());
+				}
+			}
+		}
+
+		@Override
+		public int estimate() {
+			int size = 64;
+			for (Slot slot : slots) {
+				// the registers dominate, samples are bounded
+				size += slot == null ? 8 : 2048 + 48 + MAX_SAMPLES * 64;
+			}
+			return size;
+		}
+	}
+
+}
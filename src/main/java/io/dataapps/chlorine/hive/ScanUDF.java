@@ -15,40 +15,66 @@
  */
 package io.dataapps.chlorine.hive;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.ql.exec.MapredContext;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.io.IOContext;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDTF;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
-import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
-import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Reporter;
 
-import io.dataapps.chlorine.finder.FinderEngine;
+import io.dataapps.chlorine.finder.Finder;
 
-public class ScanUDF  extends GenericUDTF {
+public class ScanUDF  extends GenericUDTF implements PipelinedScanner.RowHandler {
 	static final Log LOG = LogFactory.getLog(ScanUDF.class);
 
 	MapredContext context;
-	private transient ObjectInspectorConverters.Converter[] converters;
-	private static FinderEngine engine ;
+	private transient RowScanner scanner;
+	// null unless rows are scanned on other threads
+	private transient PipelinedScanner pipeline;
+	// null unless the scan is bounded in time
+	private transient ScanBudget budget;
+	// null unless the results of the input files are stored and replayed
+	private transient ResultsStore store;
+	private transient IOContext io;
+	private boolean reportCoverage;
+	private boolean profileRows;
+	private boolean withPath;
 	Object[] forwardObj = null;
+	// how the values found are listed, and the buffers they are listed in
+	private transient MatchValues values;
+	private final StringBuilder listing = new StringBuilder();
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private ByteBuffer encoded = ByteBuffer.allocate(256);
+	private final Text valueText = new Text();
 	long totalRecords = 0;
 	long totalMatches  = 0;
 	long matchedRecords = 0;
-	long totalSize = 0;
+	// rows counted but not scanned once the budget ran out
+	long skippedRecords = 0;
+	// rows a subclass passed over without scanning, still counted in TotalRecords
+	long passedRecords = 0;
 
 	public void configure(MapredContext context)  {
 		this.context = context;
@@ -57,21 +83,58 @@ public class ScanUDF  extends GenericUDTF {
 	@Override
 	public StructObjectInspector initialize(ObjectInspector[] arguments)
 			throws UDFArgumentException {
-		engine = new FinderEngine();
+		return initialize(arguments, 0);
+	}
+
+	/**
+	 * @param offset number of leading arguments which are options of a
+	 * subclass rather than columns to scan.
+	 */
+	protected StructObjectInspector initialize(ObjectInspector[] arguments, int offset)
+			throws UDFArgumentException {
+		ScanOptions options = ScanOptions.from(context);
+		values = MatchValues.of(options);
 
 		// take care of input first
-		converters = new ObjectInspectorConverters.Converter[arguments.length];
-		for (int i = 0; i < arguments.length; i++) {
-			if (arguments[i].getCategory() == Category.PRIMITIVE) {
-					converters[i] = ObjectInspectorConverters.getConverter(arguments[i],
-							PrimitiveObjectInspectorFactory.writableStringObjectInspector);
-			} else  {
-				converters[i] = new JsonConverter(arguments[i]);
+		scanner = new RowScanner(arguments, offset, options);
+		if (options.cacheEntries > 0) {
+			scanner.enableCache(options.cacheEntries, options.cacheBytes, options.cacheMaxValueLength);
+		}
+		if (options.prefilter) {
+			scanner.enablePrefilter();
+		}
+		if (options.windowSize > 0) {
+			scanner.enableWindows(options.windowSize, options.windowOverlap);
+		}
+		if (options.fused) {
+			scanner.enableFused(options.fusedMaxValueLength);
+		}
+		if (options.maxValueBytes > 0) {
+			scanner.enableTruncation(options.maxValueBytes);
+		}
+		if (options.budgetMillis > 0 || options.budgetCpuMillis > 0) {
+			budget = new ScanBudget(options.budgetMillis, options.budgetCpuMillis);
+		}
+		reportCoverage = budget != null || options.maxValueBytes > 0;
+		if (options.resultsStore != null) {
+			store = openStore(arguments, options);
+		}
+		if (options.profile || options.profileRows) {
+			scanner.enableProfile();
+		}
+		profileRows = options.profileRows;
+		if (options.threads > 0) {
+			if (options.cacheEntries > 0 || store != null || !canPipeline()) {
+				LOG.info("Scanning on the task thread, " + ScanOptions.THREADS + " does not apply with the cache,"
+						+ " the results store or to " + getClass().getSimpleName());
+			} else {
+				pipeline = new PipelinedScanner(scanner, options, this);
 			}
 		}
 
 		// take care of output second
-		this.forwardObj = new Object[4];
+		withPath = hasPath();
+		this.forwardObj = new Object[withPath ? 5 : 4];
 		List<String> fieldNames = new ArrayList<>();
 		List<ObjectInspector> fieldOIs = new ArrayList<>();
 
@@ -90,10 +153,16 @@ public class ScanUDF  extends GenericUDTF {
 				PrimitiveObjectInspectorFactory.getPrimitiveJavaObjectInspector(
 						PrimitiveCategory.INT));
 
+		// written from a reused buffer rather than a String per row
 		fieldNames.add("value");
-		fieldOIs.add(
-				PrimitiveObjectInspectorFactory.getPrimitiveJavaObjectInspector(
-						PrimitiveCategory.STRING));
+		fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+
+		if (withPath) {
+			fieldNames.add("path");
+			fieldOIs.add(
+					PrimitiveObjectInspectorFactory.getPrimitiveJavaObjectInspector(
+							PrimitiveCategory.STRING));
+		}
 
 		return ObjectInspectorFactory.getStandardStructObjectInspector(
 				fieldNames, fieldOIs);
@@ -101,45 +170,257 @@ public class ScanUDF  extends GenericUDTF {
 		
 	}
 
+	/**
+	 * @return true if the output has a fifth column with the path of the
+	 * values inside their column, see {@link ScanPathsUDF}.
+	 */
+	protected boolean hasPath() {
+		return false;
+	}
+
+	/**
+	 * @return false if the function needs the matches of a row before the
+	 * next row is processed, so that rows cannot be scanned on other threads.
+	 */
+	protected boolean canPipeline() {
+		return true;
+	}
+
+	/**
+	 * @return false if the output of the function is not the same whenever
+	 * the same rows are scanned, so that it cannot be stored and replayed.
+	 */
+	protected boolean canReplay() {
+		return true;
+	}
+
+	private ResultsStore openStore(ObjectInspector[] arguments, ScanOptions options) throws UDFArgumentException {
+		if (!canReplay() || context == null || options.resultsKey == null) {
+			LOG.info("Scanning every row, " + ScanOptions.RESULTS_STORE + " needs a task, the text of the query"
+					+ " or " + ScanOptions.RESULTS_KEY + ", and does not apply to " + getClass().getSimpleName());
+			return null;
+		}
+		String fingerprint = ResultsStore.fingerprint(options.resultsKey, arguments, scanner, options);
+		try {
+			return new ResultsStore(options.conf, new Path(options.resultsStore), fingerprint, scanner,
+					options.resultsRangeBytes, new ResultsStore.Replay() {
+						@Override
+						public void replayed(String type, long count, int fieldPos, String value, String path)
+								throws HiveException {
+							forward(type, count, fieldPos, value, path);
+						}
+					});
+		} catch (IOException e) {
+			throw new UDFArgumentException("Cannot open the results store " + options.resultsStore + ": "
+					+ e.getMessage());
+		}
+	}
+
+	RowScanner getScanner() {
+		return scanner;
+	}
+
+	/**
+	 * @return the number of scanned columns, which is the range of fieldpos.
+	 */
+	int getColumnCount() {
+		return scanner.getColumnCount();
+	}
+
+	/**
+	 * @return true if the column at fieldPos has anything for the finders to scan.
+	 */
+	boolean isScanned(int fieldPos) {
+		return scanner.isScanned(fieldPos);
+	}
+
 	@Override
 	public void close() throws HiveException {	
-		forward("TotalRecords", totalRecords, -2, "");
-		forward("TotalMatches", totalMatches, -2, "");
-		forward("MatchedRecords", matchedRecords, -2, "");
-		forward("TotalSize", totalSize, -2, "");
+		if (pipeline != null) {
+			pipeline.finish();
+		}
+		ResultsStore.Totals replayed = new ResultsStore.Totals();
+		if (store != null) {
+			replayed = store.close();
+		}
+		forward("TotalRecords", totalRecords + skippedRecords + passedRecords + replayed.getRecords(), -2, "", "");
+		forward("TotalMatches", totalMatches + replayed.getMatches(), -2, "", "");
+		forward("MatchedRecords", matchedRecords + replayed.getMatchedRecords(), -2, "", "");
+		forward("TotalSize", scanner.getTotalSize() + replayed.getSize(), -2, "", "");
+		if (store != null) {
+			forward("StoredFiles", store.getStoredPieces(), -2, "", "");
+			forward("ReplayedFiles", replayed.getPieces(), -2, "", "");
+			forward("ReplayedRecords", replayed.getRecords(), -2, "", "");
+		}
+		if (reportCoverage) {
+			forward("ScannedRecords", totalRecords, -2, "", "");
+			String exhausted = budget == null ? null : budget.getExhausted();
+			forward("SkippedRecords", skippedRecords, -2, exhausted == null ? "" : exhausted, "");
+			forward("TruncatedValues", scanner.getTruncatedValues(), -2, "", "");
+			forward("TruncatedSize", scanner.getTruncatedSize(), -2, "", "");
+		}
+		for (int fieldPos = 0; fieldPos < scanner.getColumnCount(); fieldPos++) {
+			ResultCache cache = scanner.getCache(fieldPos);
+			if (cache != null && cache.getLookups() + cache.getBypassed() > 0) {
+				String path = String.valueOf(fieldPos);
+				forward("CacheLookups", cache.getLookups(), fieldPos, "", path);
+				forward("CacheHits", cache.getHits(), fieldPos, "", path);
+				forward("CacheBypassed", cache.getBypassed(), fieldPos, "", path);
+			}
+		}
+		if (pipeline != null) {
+			forward("PipelineSpeedup", pipeline.getThreads(), -2,
+					String.format(Locale.ROOT, "%.2f", pipeline.getSpeedup()), "");
+			forward("PipelineRowsInFlight", pipeline.getMaxRowsInFlight(), -2,
+					String.format(Locale.ROOT, "%.1f", pipeline.getMeanRowsInFlight()), "");
+			forward("PipelineStallNanos", pipeline.getStallNanos(), -2, "", "");
+		}
+		ScanProfile profile = scanner.getProfile();
+		if (profile != null) {
+			if (context != null && context.getReporter() != null) {
+				profile.publish(context.getReporter());
+				publishPrefilter(context.getReporter());
+				publishRegistry(context.getReporter());
+			}
+			if (profileRows) {
+				forwardProfile(profile);
+			}
+		}
+	}
+
+	private void forwardProfile(ScanProfile profile) throws HiveException {
+		forward("ConversionNanos", profile.getConversionNanos(), -2, "", "");
+		forward("MatchingNanos", profile.getMatchingNanos(), -2, "", "");
+		for (Map.Entry<Finder, ScanProfile.FinderStats> entry : profile.getFinderStats().entrySet()) {
+			String name = entry.getKey().getName();
+			forward("FinderNanos", entry.getValue().getNanos(), -2, name, "");
+			forward("FinderValues", entry.getValue().getValues(), -2, name, "");
+			forward("FinderMatches", entry.getValue().getMatches(), -2, name, "");
+		}
+		for (int fieldPos = 0; fieldPos < profile.getColumnCount(); fieldPos++) {
+			forward("ColumnBytes", profile.getColumnBytes(fieldPos), fieldPos, "", String.valueOf(fieldPos));
+		}
+		forward("ValueNanosP50", profile.getValueNanos(0.5), -2, "", "");
+		forward("ValueNanosP99", profile.getValueNanos(0.99), -2, "", "");
+		FinderRegistry.Lookup lookup = scanner.getLookup();
+		forward(lookup.isBuilt() ? "EngineBuildNanos" : "EngineSavedNanos", lookup.getBuildNanos(), -2, "", "");
+		if (scanner.getPrefilter() != null) {
+			for (Prefilter.Stats stats : scanner.getPrefilter().getStats()) {
+				String name = stats.getFinder().getName();
+				forward("PrefilterPassed", stats.getPassed(), -2, name, "");
+				forward("PrefilterRejected", stats.getRejected(), -2, name, "");
+			}
+		}
+	}
+
+	private void publishRegistry(Reporter reporter) {
+		FinderRegistry.Lookup lookup = scanner.getLookup();
+		if (lookup.isBuilt()) {
+			reporter.incrCounter(ScanProfile.COUNTER_GROUP, "Finder engines built", 1);
+			reporter.incrCounter(ScanProfile.COUNTER_GROUP, "Finder engine build nanos", lookup.getBuildNanos());
+		} else {
+			reporter.incrCounter(ScanProfile.COUNTER_GROUP, "Finder engines reused", 1);
+			reporter.incrCounter(ScanProfile.COUNTER_GROUP, "Finder engine nanos saved", lookup.getBuildNanos());
+		}
+	}
+
+	private void publishPrefilter(Reporter reporter) {
+		if (scanner.getPrefilter() != null) {
+			for (Prefilter.Stats stats : scanner.getPrefilter().getStats()) {
+				String name = stats.getFinder().getName();
+				reporter.incrCounter(ScanProfile.COUNTER_GROUP, name + " prefilter passed", stats.getPassed());
+				reporter.incrCounter(ScanProfile.COUNTER_GROUP, name + " prefilter rejected", stats.getRejected());
+			}
+		}
 	}
 
 	@Override
 	public void process(Object[] arguments) throws HiveException {
-		long matches = 0;		
-		for (int i = 0; i < arguments.length; i++) {
-			if (arguments[i] != null && converters[i] != null) {
-				Text value = (Text) converters[i].convert(arguments[i]);
-				Map<String, List<String>> matchesByType = engine.findWithType(value.toString());
-				totalSize += value.getLength();
-				for (Map.Entry<String, List<String>> entry : matchesByType.entrySet()) {
-					Collection<String> result = entry.getValue();
-					if (result.size() > 0) {
-						matches += result.size();
-						forward(entry.getKey(), result.size(), i, StringUtils.join(result, ','));	
-					}
-				}
+		if (store != null) {
+			if (io == null) {
+				io = IOContext.get(context.getJobConf());
+			}
+			if (store.skip(io.getInputPath(), io.getCurrentBlockStart(), io.getCurrentRow())) {
+				return;
+			}
+		}
+		if (budget != null && budget.isExhausted(pipeline == null ? 0 : pipeline.getWorkerNanos())) {
+			if (store != null) {
+				store.abandon();
 			}
+			skippedRecords++;
+			return;
+		}
+		if (pipeline != null) {
+			pipeline.process(arguments);
+		} else {
+			scanned(scanner.scan(arguments, this));
 		}
+	}
+
+	/**
+	 * Called once per row, after its matches.
+	 */
+	@Override
+	public void scanned(long matches) throws HiveException {
 		totalRecords ++;
 		if (matches > 0) {
 			totalMatches += matches;
 			matchedRecords ++;
 		}
-		
+		if (store != null) {
+			store.scanned(matches);
+		}
 	}
 
-	private void forward( String name, long count, int columnPos, String value)
+	/**
+	 * Called for every value in which a finder found something. Emits one row
+	 * per type per value.
+	 */
+	@Override
+	public void matched(String type, List<String> result, int fieldPos, CharSequence path)
+			throws HiveException {
+		listing.setLength(0);
+		values.append(result, listing);
+		encode(listing);
+		String pathString = path.toString();
+		forward(type, result.size(), fieldPos, valueText, pathString);
+		if (store != null) {
+			store.matched(type, result.size(), fieldPos, valueText, pathString);
+		}
+	}
+
+	/**
+	 * Sets valueText to the UTF-8 bytes of chars.
+	 */
+	private void encode(CharSequence chars) {
+		// a char never takes more than 3 bytes, surrogate pairs 4 for 2
+		int size = 3 * chars.length();
+		if (encoded.capacity() < size) {
+			encoded = ByteBuffer.allocate(Math.max(size, encoded.capacity() * 2));
+		}
+		encoded.clear();
+		encoder.reset();
+		encoder.encode(CharBuffer.wrap(chars), encoded, true);
+		encoder.flush(encoded);
+		valueText.set(encoded.array(), 0, encoded.position());
+	}
+
+	void forward( String name, long count, int columnPos, String value, String path)
+			throws HiveException {
+		valueText.set(value);
+		forward(name, count, columnPos, valueText, path);
+	}
+
+	private void forward(String name, long count, int columnPos, Text value, String path)
 			throws HiveException {
 		forwardObj[0]= name;
 		forwardObj[1]= count;
 		forwardObj[2]= columnPos;
 		forwardObj[3]= value;
+		if (withPath) {
+			forwardObj[4]= path;
+		}
 		this.forward(forwardObj);
 	}
 
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedExpressions;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * <code>sensitive_count(col[, finders])</code>: the number of values the
+ * finders find, e.g. <code>sensitive_count(notes, 'SSN-dashes')</code>.
+ * Vectorized when registered as a permanent function.
+ */
+@VectorizedExpressions({VectorSensitiveCount.class, VectorSensitiveCount.WithFinders.class})
+public class SensitiveCountUDF extends SensitiveUDF {
+
+	private final LongWritable result = new LongWritable();
+
+	@Override
+	protected String getFuncName() {
+		return "sensitive_count";
+	}
+
+	@Override
+	protected ObjectInspector getOutputInspector() {
+		return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+	}
+
+	@Override
+	protected Object evaluate(SliceScanner scanner, byte[] bytes, int start, int length) {
+		result.set(scanner.count(bytes, start, length));
+		return result;
+	}
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedExpressions;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+
+/**
+ * <code>sensitive_types(col[, finders])</code>: the comma separated names of
+ * the finders which find something in the value, an empty string if none
+ * does. A string rather than an array, so that it can be vectorized when
+ * registered as a permanent function.
+ */
+@VectorizedExpressions({VectorSensitiveTypes.class, VectorSensitiveTypes.WithFinders.class})
+public class SensitiveTypesUDF extends SensitiveUDF {
+
+	private final Text result = new Text();
+
+	@Override
+	protected String getFuncName() {
+		return "sensitive_types";
+	}
+
+	@Override
+	protected ObjectInspector getOutputInspector() {
+		return PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+	}
+
+	@Override
+	protected Object evaluate(SliceScanner scanner, byte[] bytes, int start, int length) {
+		int typesLength = scanner.types(bytes, start, length);
+		result.set(scanner.getTypes(), 0, typesLength);
+		return result;
+	}
+
+}
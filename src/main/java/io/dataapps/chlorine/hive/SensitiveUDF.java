@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+
+import io.dataapps.chlorine.finder.Finder;
+
+/**
+ * Base of the scalar detection functions, <code>f(col[, finders])</code>:
+ * the value is converted to text and its bytes are scanned by a
+ * {@link SliceScanner}. finders is a constant such as 'Email,SSN-dashes' or
+ * a finder definition file ending in .xml, all the built-in finders run when
+ * it is omitted. A null value gives null. The finder options of the session,
+ * such as {@link ScanOptions#FINDERS_FILE}, apply as they do to scan.
+ */
+public abstract class SensitiveUDF extends GenericUDF {
+
+	private transient MapredContext context;
+	private transient ObjectInspectorConverters.Converter converter;
+	private transient SliceScanner scanner;
+
+	@Override
+	public void configure(MapredContext context) {
+		this.context = context;
+	}
+
+	@Override
+	public ObjectInspector initialize(ObjectInspector[] arguments)
+			throws UDFArgumentException {
+		if (arguments.length < 1 || arguments.length > 2) {
+			throw new UDFArgumentLengthException(getFuncName() + "(col[, finders]) takes 1 or 2 arguments");
+		}
+		if (arguments[0].getCategory() != Category.PRIMITIVE) {
+			throw new UDFArgumentTypeException(0, getFuncName() + " only scans primitive values, got "
+					+ arguments[0].getTypeName());
+		}
+		ScanOptions options = ScanOptions.from(context);
+		scanner = new SliceScanner(getFinders(arguments, options), options);
+		converter = ObjectInspectorConverters.getConverter(arguments[0],
+				PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+		return getOutputInspector();
+	}
+
+	private List<Finder> getFinders(ObjectInspector[] arguments, ScanOptions options) throws UDFArgumentException {
+		if (arguments.length < 2) {
+			return FinderRegistry.lookup(options).getFinders();
+		}
+		String names = arguments[1] instanceof ConstantObjectInspector
+				? getConstantStringValue(arguments, 1) : null;
+		if (names == null) {
+			throw new UDFArgumentTypeException(1, "finders of " + getFuncName() + " must be a constant string");
+		}
+		return FinderRegistry.lookup(names, options).getFinders();
+	}
+
+	@Override
+	protected abstract String getFuncName();
+
+	protected abstract ObjectInspector getOutputInspector();
+
+	/**
+	 * @return the result for the UTF-8 bytes of a non null value.
+	 */
+	protected abstract Object evaluate(SliceScanner scanner, byte[] bytes, int start, int length);
+
+	@Override
+	public Object evaluate(DeferredObject[] arguments) throws HiveException {
+		Object value = arguments[0].get();
+		if (value == null) {
+			return null;
+		}
+		Text text = (Text) converter.convert(value);
+		return evaluate(scanner, text.getBytes(), 0, text.getLength());
+	}
+
+	@Override
+	public String getDisplayString(String[] children) {
+		return getStandardDisplayString(getFuncName(), children);
+	}
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorExpressionDescriptor;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+
+import io.dataapps.chlorine.finder.Finder;
+
+/**
+ * Base of the vectorized forms of the {@link SensitiveUDF} functions: scans
+ * the start/length slices of a string column in place and writes one result
+ * per row to the output column. Nulls and repeating input are carried over
+ * to the output. Hive 1.2 only vectorizes built-in and permanent functions
+ * with them, and runs temporary ones through VectorUDFAdaptor.
+ *
+ * Expressions are serialized with the plan, the finders are only loaded on
+ * the first batch. The job configuration is not known to them, so they carry
+ * the options set in the session when the query was compiled.
+ */
+public abstract class SensitiveVectorExpression extends VectorExpression {
+	private static final long serialVersionUID = 1L;
+
+	private int colNum;
+	private int outputColumn;
+	// the finders argument, UTF-8, null for all the finders
+	private byte[] finderNames;
+	// see ScanOptions.sessionSettings()
+	private String[] settings;
+	private transient SliceScanner scanner;
+
+	protected SensitiveVectorExpression() {
+	}
+
+	protected SensitiveVectorExpression(int colNum, byte[] finderNames, int outputColumn) {
+		this.colNum = colNum;
+		this.finderNames = finderNames;
+		this.outputColumn = outputColumn;
+		this.settings = ScanOptions.sessionSettings();
+	}
+
+	/**
+	 * Writes the result for row i, whose value is not null.
+	 */
+	protected abstract void evaluate(SliceScanner scanner, byte[] bytes, int start, int length,
+			ColumnVector output, int i);
+
+	@Override
+	public void evaluate(VectorizedRowBatch batch) {
+		if (childExpressions != null) {
+			evaluateChildren(batch);
+		}
+		BytesColumnVector input = (BytesColumnVector) batch.cols[colNum];
+		ColumnVector output = batch.cols[outputColumn];
+		int[] sel = batch.selected;
+		int n = batch.size;
+		if (n == 0) {
+			return;
+		}
+		SliceScanner scanner = getScanner();
+		output.noNulls = input.noNulls;
+		output.isRepeating = input.isRepeating;
+		if (input.isRepeating) {
+			output.isNull[0] = input.isNull[0];
+			if (input.noNulls || !input.isNull[0]) {
+				evaluate(scanner, input.vector[0], input.start[0], input.length[0], output, 0);
+			}
+			return;
+		}
+		for (int j = 0; j < n; j++) {
+			int i = batch.selectedInUse ? sel[j] : j;
+			if (input.noNulls || !input.isNull[i]) {
+				output.isNull[i] = false;
+				evaluate(scanner, input.vector[i], input.start[i], input.length[i], output, i);
+			} else {
+				output.isNull[i] = true;
+			}
+		}
+	}
+
+	protected SliceScanner getScanner() {
+		if (scanner == null) {
+			scanner = newScanner(finderNames, settings);
+		}
+		return scanner;
+	}
+
+	static SliceScanner newScanner(byte[] finderNames, String[] settings) {
+		String names = finderNames == null ? null : new String(finderNames, StandardCharsets.UTF_8);
+		ScanOptions options = ScanOptions.of(settings);
+		List<Finder> finders;
+		try {
+			finders = FinderRegistry.lookup(names, options).getFinders();
+		} catch (UDFArgumentException e) {
+			// already checked when the function was compiled
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+		return new SliceScanner(finders, options);
+	}
+
+	/**
+	 * @return the descriptor of a projection over a string column, with a
+	 * constant finders argument if withFinders.
+	 */
+	static VectorExpressionDescriptor.Descriptor descriptor(VectorExpressionDescriptor.Mode mode,
+			boolean withFinders) {
+		VectorExpressionDescriptor.Builder builder = new VectorExpressionDescriptor.Builder().setMode(mode);
+		if (withFinders) {
+			builder.setNumArguments(2)
+					.setArgumentTypes(VectorExpressionDescriptor.ArgumentType.STRING_FAMILY,
+							VectorExpressionDescriptor.ArgumentType.STRING)
+					.setInputExpressionTypes(VectorExpressionDescriptor.InputExpressionType.COLUMN,
+							VectorExpressionDescriptor.InputExpressionType.SCALAR);
+		} else {
+			builder.setNumArguments(1)
+					.setArgumentTypes(VectorExpressionDescriptor.ArgumentType.STRING_FAMILY)
+					.setInputExpressionTypes(VectorExpressionDescriptor.InputExpressionType.COLUMN);
+		}
+		return builder.build();
+	}
+
+	public int getColNum() {
+		return colNum;
+	}
+
+	@Override
+	public int getOutputColumn() {
+		return outputColumn;
+	}
+
+}
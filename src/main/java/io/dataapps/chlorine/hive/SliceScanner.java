@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import io.dataapps.chlorine.finder.Finder;
+
+/**
+ * Runs finders over UTF-8 byte slices, such as the entries of a
+ * BytesColumnVector or the buffer of a Text, through a {@link TextMatcher}:
+ * ASCII slices are matched in place and others decoded into a reused
+ * buffer, so that no String is made of a slice. Unless disabled by
+ * {@link ScanOptions#PREFILTER}, a {@link Prefilter} first skips the finders
+ * which cannot match the slice.
+ */
+public class SliceScanner {
+
+	private static final byte[] COMMA = {','};
+
+	private final Finder[] finders;
+	private final byte[][] names;
+	private final TextMatcher matcher = new TextMatcher();
+	// null if disabled
+	private final Prefilter prefilter;
+	private byte[] types = new byte[64];
+	private int typesLength;
+
+	public SliceScanner(List<Finder> finders, ScanOptions options) {
+		this.prefilter = options.prefilter ? new Prefilter() : null;
+		this.finders = finders.toArray(new Finder[finders.size()]);
+		this.names = new byte[this.finders.length][];
+		for (int i = 0; i < this.finders.length; i++) {
+			names[i] = this.finders[i].getName().getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	public Finder[] getFinders() {
+		return finders;
+	}
+
+	/**
+	 * @return true if any finder finds something in the slice.
+	 */
+	public boolean matches(byte[] bytes, int start, int length) {
+		reset(bytes, start, length);
+		for (int i = 0; i < finders.length; i++) {
+			if (isAdmitted(i) && matcher.matches(finders[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of values found in the slice, by all finders.
+	 */
+	public long count(byte[] bytes, int start, int length) {
+		reset(bytes, start, length);
+		long count = 0;
+		for (int i = 0; i < finders.length; i++) {
+			if (isAdmitted(i)) {
+				count += matcher.count(finders[i]);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the types present in the slice.
+	 * @return the length of their comma separated names, which are in
+	 * {@link #getTypes()}.
+	 */
+	public int types(byte[] bytes, int start, int length) {
+		reset(bytes, start, length);
+		typesLength = 0;
+		for (int i = 0; i < finders.length; i++) {
+			if (isAdmitted(i) && matcher.matches(finders[i])) {
+				if (typesLength > 0) {
+					appendType(COMMA);
+				}
+				appendType(names[i]);
+			}
+		}
+		return typesLength;
+	}
+
+	/**
+	 * @return the buffer filled by the last call to types(), valid up to the
+	 * length it returned.
+	 */
+	public byte[] getTypes() {
+		return types;
+	}
+
+	private void appendType(byte[] name) {
+		if (typesLength + name.length > types.length) {
+			byte[] grown = new byte[Math.max(types.length * 2, typesLength + name.length)];
+			System.arraycopy(types, 0, grown, 0, typesLength);
+			types = grown;
+		}
+		System.arraycopy(name, 0, types, typesLength, name.length);
+		typesLength += name.length;
+	}
+
+	private void reset(byte[] bytes, int start, int length) {
+		matcher.reset(bytes, start, length);
+		if (prefilter != null) {
+			prefilter.scan(bytes, start, length, finders);
+		}
+	}
+
+	private boolean isAdmitted(int i) {
+		return prefilter == null || prefilter.admitted(i);
+	}
+
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+import org.apache.hadoop.io.Text;
+
+import io.dataapps.chlorine.finder.Finder;
+import io.dataapps.chlorine.pattern.RegexFinder;
+
+/**
+ * Runs finders over the UTF-8 bytes of a Text without making a String of it.
+ * An ASCII value is matched in place through a view of its bytes; any other
+ * value is decoded once into a char buffer reused from value to value, as
+ * Text.toString() would decode it. Only the matches become Strings.
+ *
+ * Regex finders, and composite finders made of them, are run through their
+ * parts, see {@link FinderParts}. A {@link KnownValueFinder} looks its tokens
+ * up in place; other finders get the decoded String, made at most once per
+ * value.
+ */
+public class TextMatcher {
+
+	/**
+	 * Read-only chars of an ASCII byte slice.
+	 */
+	static class AsciiSequence implements CharSequence {
+		private byte[] bytes;
+		private int start;
+		private int length;
+
+		AsciiSequence set(byte[] bytes, int start, int length) {
+			this.bytes = bytes;
+			this.start = start;
+			this.length = length;
+			return this;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) bytes[start + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			return new AsciiSequence().set(bytes, start + from, to - from);
+		}
+
+		@Override
+		public String toString() {
+			return new String(bytes, start, length, StandardCharsets.ISO_8859_1);
+		}
+	}
+
+	/**
+	 * Char offsets of what finders found in a value, in no particular order.
+	 */
+	public static class Spans {
+		private int[] starts = new int[8];
+		private int[] ends = new int[8];
+		private int count;
+
+		void add(int start, int end) {
+			if (count == starts.length) {
+				starts = Arrays.copyOf(starts, count * 2);
+				ends = Arrays.copyOf(ends, count * 2);
+			}
+			starts[count] = start;
+			ends[count++] = end;
+		}
+
+		public void clear() {
+			count = 0;
+		}
+
+		public int size() {
+			return count;
+		}
+
+		public int start(int i) {
+			return starts[i];
+		}
+
+		public int end(int i) {
+			return ends[i];
+		}
+	}
+
+	private final AsciiSequence ascii = new AsciiSequence();
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	// matchers per regex part, by pattern
+	private final Map<RegexFinder, Matcher> matchers = new IdentityHashMap<>();
+	private CharBuffer chars = CharBuffer.allocate(256);
+
+	// the value being matched, and its String once made
+	private CharSequence sequence;
+	private String decoded;
+
+	/**
+	 * Matches value until the next reset.
+	 */
+	public void reset(Text value) {
+		reset(value.getBytes(), 0, value.getLength());
+	}
+
+	/**
+	 * Matches a slice of UTF-8 bytes until the next reset. The bytes are not
+	 * copied, and must not change in the meantime.
+	 */
+	public void reset(byte[] bytes, int start, int length) {
+		decoded = null;
+		for (int i = start; i < start + length; i++) {
+			if (bytes[i] < 0) {
+				sequence = decode(bytes, start, length);
+				return;
+			}
+		}
+		sequence = ascii.set(bytes, start, length);
+	}
+
+	private CharBuffer decode(byte[] bytes, int start, int length) {
+		// UTF-8 never takes fewer bytes than UTF-16 chars, replacements included
+		if (chars.capacity() < length) {
+			chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+		}
+		chars.clear();
+		decoder.reset();
+		decoder.decode(ByteBuffer.wrap(bytes, start, length), chars, true);
+		decoder.flush(chars);
+		chars.flip();
+		return chars;
+	}
+
+	/**
+	 * @return what finder finds in the current value, as finder.find() would
+	 * over its String.
+	 */
+	public List<String> find(Finder finder) {
+		if (finder instanceof KnownValueFinder) {
+			// its tokens are looked up in place
+			return ((KnownValueFinder) finder).find(sequence);
+		}
+		RegexFinder[] parts = FinderParts.of(finder);
+		if (parts == FinderParts.NOT_REGEX) {
+			if (decoded == null) {
+				decoded = sequence.toString();
+			}
+			return finder.find(decoded);
+		}
+		List<String> found = null;
+		for (RegexFinder part : parts) {
+			Matcher matcher = matcher(part);
+			matcher.reset(sequence);
+			while (matcher.find()) {
+				found = FinderParts.accept(part, matcher, found);
+			}
+		}
+		return found == null ? Collections.<String>emptyList() : found;
+	}
+
+	/**
+	 * @return the number of values finder finds in the current value, the
+	 * size of what find() returns, without making Strings of plain regex
+	 * matches.
+	 */
+	public int count(Finder finder) {
+		return count(finder, false);
+	}
+
+	/**
+	 * @return true if finder finds anything in the current value, stopping
+	 * at the first match.
+	 */
+	public boolean matches(Finder finder) {
+		return count(finder, true) > 0;
+	}
+
+	private int count(Finder finder, boolean any) {
+		RegexFinder[] parts = FinderParts.of(finder);
+		if (parts == FinderParts.NOT_REGEX) {
+			return find(finder).size();
+		}
+		int count = 0;
+		for (RegexFinder part : parts) {
+			Matcher matcher = matcher(part);
+			matcher.reset(sequence);
+			while (matcher.find()) {
+				// FinderParts.accept() lists one value per plain match
+				count += part.getClass() == RegexFinder.class ? 1 : part.find(matcher.group()).size();
+				if (any && count > 0) {
+					return count;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Adds to spans where in the current value what finder finds is, with
+	 * the commas and spaces its find() trims left out.
+	 */
+	public void locate(Finder finder, Spans spans) {
+		RegexFinder[] parts = FinderParts.of(finder);
+		if (parts == FinderParts.NOT_REGEX) {
+			if (decoded == null) {
+				decoded = sequence.toString();
+			}
+			locate(decoded, 0, finder.find(decoded), spans);
+			return;
+		}
+		for (RegexFinder part : parts) {
+			Matcher matcher = matcher(part);
+			matcher.reset(sequence);
+			while (matcher.find()) {
+				if (part.getClass() == RegexFinder.class) {
+					locate(matcher.start(), matcher.end(), spans);
+				} else {
+					// subclasses such as CreditCardFinder find their matches again in the text of the match
+					String match = matcher.group();
+					locate(match, matcher.start(), part.find(match), spans);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the chars from start to end less what FinderParts.accept() trims.
+	 */
+	private void locate(int start, int end, Spans spans) {
+		if (end > start && sequence.charAt(end - 1) == ',') {
+			end--;
+		}
+		if (end > start && sequence.charAt(start) == ',') {
+			start++;
+		}
+		while (start < end && sequence.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && sequence.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		if (end > start) {
+			spans.add(start, end);
+		}
+	}
+
+	/**
+	 * Adds where each of found is in text, which starts at offset in the value.
+	 */
+	private static void locate(String text, int offset, List<String> found, Spans spans) {
+		int from = 0;
+		for (String value : found) {
+			int index = text.indexOf(value, from);
+			if (index < 0) {
+				index = text.indexOf(value);
+			}
+			if (index >= 0 && !value.isEmpty()) {
+				spans.add(offset + index, offset + index + value.length());
+				from = index + value.length();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the current value is ASCII, so that its chars are its bytes.
+	 */
+	boolean isAscii() {
+		return sequence == ascii;
+	}
+
+	/**
+	 * @return the chars of the current value.
+	 */
+	CharSequence getSequence() {
+		return sequence;
+	}
+
+	private Matcher matcher(RegexFinder part) {
+		Matcher matcher = matchers.get(part);
+		if (matcher == null) {
+			matcher = part.getPattern().matcher("");
+			matchers.put(part, matcher);
+		}
+		return matcher;
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorExpressionDescriptor;
+
+/**
+ * Vectorized <code>has_sensitive(col)</code>: 1 if any finder finds something
+ * in the value, 0 otherwise.
+ */
+public class VectorHasSensitive extends SensitiveVectorExpression {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * <code>has_sensitive(col, finders)</code>.
+	 */
+	public static class WithFinders extends VectorHasSensitive {
+		private static final long serialVersionUID = 1L;
+
+		public WithFinders() {
+		}
+
+		public WithFinders(int colNum, byte[] finderNames, int outputColumn) {
+			super(colNum, finderNames, outputColumn);
+		}
+
+		@Override
+		public VectorExpressionDescriptor.Descriptor getDescriptor() {
+			return descriptor(VectorExpressionDescriptor.Mode.PROJECTION, true);
+		}
+	}
+
+	public VectorHasSensitive() {
+	}
+
+	public VectorHasSensitive(int colNum, int outputColumn) {
+		this(colNum, null, outputColumn);
+	}
+
+	protected VectorHasSensitive(int colNum, byte[] finderNames, int outputColumn) {
+		super(colNum, finderNames, outputColumn);
+		setOutputType("boolean");
+	}
+
+	@Override
+	protected void evaluate(SliceScanner scanner, byte[] bytes, int start, int length,
+			ColumnVector output, int i) {
+		((LongColumnVector) output).vector[i] = scanner.matches(bytes, start, length) ? 1 : 0;
+	}
+
+	@Override
+	public VectorExpressionDescriptor.Descriptor getDescriptor() {
+		return descriptor(VectorExpressionDescriptor.Mode.PROJECTION, false);
+	}
+
+}
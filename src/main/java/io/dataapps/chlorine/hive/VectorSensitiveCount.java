@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorExpressionDescriptor;
+
+/**
+ * Vectorized <code>sensitive_count(col)</code>: the number of values found by
+ * all the finders.
+ */
+public class VectorSensitiveCount extends SensitiveVectorExpression {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * <code>sensitive_count(col, finders)</code>.
+	 */
+	public static class WithFinders extends VectorSensitiveCount {
+		private static final long serialVersionUID = 1L;
+
+		public WithFinders() {
+		}
+
+		public WithFinders(int colNum, byte[] finderNames, int outputColumn) {
+			super(colNum, finderNames, outputColumn);
+		}
+
+		@Override
+		public VectorExpressionDescriptor.Descriptor getDescriptor() {
+			return descriptor(VectorExpressionDescriptor.Mode.PROJECTION, true);
+		}
+	}
+
+	public VectorSensitiveCount() {
+	}
+
+	public VectorSensitiveCount(int colNum, int outputColumn) {
+		this(colNum, null, outputColumn);
+	}
+
+	protected VectorSensitiveCount(int colNum, byte[] finderNames, int outputColumn) {
+		super(colNum, finderNames, outputColumn);
+		setOutputType("bigint");
+	}
+
+	@Override
+	protected void evaluate(SliceScanner scanner, byte[] bytes, int start, int length,
+			ColumnVector output, int i) {
+		((LongColumnVector) output).vector[i] = scanner.count(bytes, start, length);
+	}
+
+	@Override
+	public VectorExpressionDescriptor.Descriptor getDescriptor() {
+		return descriptor(VectorExpressionDescriptor.Mode.PROJECTION, false);
+	}
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorExpressionDescriptor;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+
+/**
+ * Vectorized <code>sensitive_types(col)</code>: the comma separated names of the
+ * finders which find something in the value, empty if none does.
+ */
+public class VectorSensitiveTypes extends SensitiveVectorExpression {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * <code>sensitive_types(col, finders)</code>.
+	 */
+	public static class WithFinders extends VectorSensitiveTypes {
+		private static final long serialVersionUID = 1L;
+
+		public WithFinders() {
+		}
+
+		public WithFinders(int colNum, byte[] finderNames, int outputColumn) {
+			super(colNum, finderNames, outputColumn);
+		}
+
+		@Override
+		public VectorExpressionDescriptor.Descriptor getDescriptor() {
+			return descriptor(VectorExpressionDescriptor.Mode.PROJECTION, true);
+		}
+	}
+
+	public VectorSensitiveTypes() {
+	}
+
+	public VectorSensitiveTypes(int colNum, int outputColumn) {
+		this(colNum, null, outputColumn);
+	}
+
+	protected VectorSensitiveTypes(int colNum, byte[] finderNames, int outputColumn) {
+		super(colNum, finderNames, outputColumn);
+		setOutputType("string");
+	}
+
+	@Override
+	public void evaluate(VectorizedRowBatch batch) {
+		((BytesColumnVector) batch.cols[getOutputColumn()]).initBuffer();
+		super.evaluate(batch);
+	}
+
+	@Override
+	protected void evaluate(SliceScanner scanner, byte[] bytes, int start, int length,
+			ColumnVector output, int i) {
+		int typesLength = scanner.types(bytes, start, length);
+		((BytesColumnVector) output).setVal(i, scanner.getTypes(), 0, typesLength);
+	}
+
+	@Override
+	public VectorExpressionDescriptor.Descriptor getDescriptor() {
+		return descriptor(VectorExpressionDescriptor.Mode.PROJECTION, false);
+	}
+
+}
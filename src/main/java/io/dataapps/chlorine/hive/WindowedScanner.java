@@ -0,0 +1,251 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+import org.apache.hadoop.io.Text;
+
+import io.dataapps.chlorine.finder.Finder;
+import io.dataapps.chlorine.pattern.RegexFinder;
+
+/**
+ * Scans long values in fixed-size windows, decoding their UTF-8 bytes a
+ * window at a time instead of into one String. Consecutive windows overlap
+ * by the longest match expected of a finder, and a match is only taken from
+ * the window in which it starts, so that it is counted once. Matching carries
+ * on from the end of the previous match, as over the whole value. When a
+ * match reaches the end of a window, and could differ with more of the
+ * value, the window is widened and scanned again.
+ *
+ * Regex finders, and composite finders made of them, are matched in place;
+ * other finders get the whole value decoded. A match longer than the overlap
+ * may be cut or missed at the edge of a window.
+ */
+public class WindowedScanner {
+	// chars kept before a window for the lookbehinds and boundaries of the patterns
+	static final int CONTEXT = 16;
+
+	private final int size;
+	private final int capacity;
+	// grows while a match runs past the end of a window
+	private char[] chars;
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	// matchers per regex part, by pattern
+	private final Map<RegexFinder, Matcher> matchers = new IdentityHashMap<>();
+
+	/**
+	 * @param size chars owned by each window, values of at most size bytes
+	 * are not windowed.
+	 * @param overlap the longest match expected of a finder.
+	 */
+	public WindowedScanner(int size, int overlap) {
+		this.size = size;
+		this.capacity = CONTEXT + size + overlap;
+		this.chars = new char[capacity];
+	}
+
+	/**
+	 * @return true if value is long enough to be scanned in windows.
+	 */
+	public boolean isLong(Text value) {
+		return value.getLength() > size;
+	}
+
+	/**
+	 * Runs the finders over value, the ones the prefilter admitted if not
+	 * null.
+	 * @param profile times the finders if not null.
+	 * @return per finder, what it found or null.
+	 */
+	public List<String>[] find(Text value, Finder[] finders, Prefilter prefilter, ScanProfile profile) {
+		List<String>[] found = RowScanner.newResults(finders.length);
+		RegexFinder[][] parts = new RegexFinder[finders.length][];
+		int count = 0;
+		for (int k = 0; k < finders.length; k++) {
+			if (prefilter == null || prefilter.admitted(k)) {
+				parts[k] = FinderParts.of(finders[k]);
+				count += parts[k].length;
+			}
+		}
+		Matcher[] partMatchers = new Matcher[count];
+		RegexFinder[] partFinders = new RegexFinder[count];
+		int[] partOf = new int[count];
+		int p = 0;
+		for (int k = 0; k < finders.length; k++) {
+			if (parts[k] == null) {
+				continue;
+			}
+			for (RegexFinder part : parts[k]) {
+				partFinders[p] = part;
+				partMatchers[p] = matcher(part);
+				partOf[p++] = k;
+			}
+		}
+		List<String>[] partFound = scan(value, partFinders, partMatchers, partOf, finders, profile);
+
+		String decoded = null;
+		for (int k = 0; k < finders.length; k++) {
+			if (parts[k] == null) {
+				continue;
+			}
+			List<String> result;
+			if (parts[k] == FinderParts.NOT_REGEX) {
+				if (decoded == null) {
+					decoded = value.toString();
+				}
+				long start = profile == null ? 0 : System.nanoTime();
+				result = finders[k].find(decoded);
+				if (profile != null) {
+					profile.finderRun(finders[k], System.nanoTime() - start, result.size());
+				}
+			} else {
+				// a composite finder lists the matches of its parts one part after the other
+				result = new ArrayList<>();
+				for (p = 0; p < count; p++) {
+					if (partOf[p] == k && partFound[p] != null) {
+						result.addAll(partFound[p]);
+					}
+				}
+			}
+			if (result.size() > 0) {
+				found[k] = result;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Decodes value window by window and runs the part matchers over each.
+	 */
+	private List<String>[] scan(Text value, RegexFinder[] parts, Matcher[] partMatchers, int[] partOf,
+			Finder[] finders, ScanProfile profile) {
+		List<String>[] found = RowScanner.newResults(parts.length);
+		long[] lastEnd = new long[parts.length];
+		long[] nanos = profile == null ? null : new long[parts.length];
+		// state before the current window, to go over it again in a wider window
+		long[] windowLastEnd = new long[parts.length];
+		int[] windowFound = new int[parts.length];
+		if (chars.length > capacity) {
+			chars = new char[capacity];
+		}
+		ByteBuffer in = ByteBuffer.wrap(value.getBytes(), 0, value.getLength());
+		CharBuffer out = CharBuffer.wrap(chars);
+		decoder.reset();
+		boolean eof = false;
+		// absolute offsets of chars[0] and of the window owned by this pass
+		long base = 0;
+		long pos = 0;
+		while (true) {
+			if (!eof) {
+				decoder.decode(in, out, true);
+				if (!in.hasRemaining()) {
+					eof = decoder.flush(out).isUnderflow();
+				}
+			}
+			int filled = out.position();
+			// the last window takes every match left
+			long ownedEnd = eof ? Long.MAX_VALUE : pos + size;
+			CharBuffer window = CharBuffer.wrap(chars, 0, filled);
+			for (int p = 0; p < parts.length; p++) {
+				windowLastEnd[p] = lastEnd[p];
+				windowFound[p] = found[p] == null ? 0 : found[p].size();
+			}
+			boolean cut = false;
+			for (int p = 0; p < parts.length && !cut; p++) {
+				long start = nanos == null ? 0 : System.nanoTime();
+				Matcher matcher = partMatchers[p];
+				matcher.reset(window);
+				matcher.useTransparentBounds(true);
+				matcher.useAnchoringBounds(false);
+				int from = (int) (Math.max(lastEnd[p], pos) - base);
+				if (from <= filled) {
+					matcher.region(from, filled);
+					while (matcher.find()) {
+						long matchStart = base + matcher.start();
+						if (matchStart >= ownedEnd) {
+							break;
+						}
+						if (!eof && matcher.hitEnd()) {
+							// the match may be different once the value goes on
+							cut = true;
+							break;
+						}
+						found[p] = FinderParts.accept(parts[p], matcher, found[p]);
+						long matchEnd = base + matcher.end();
+						// after an empty match the next one is looked for a char further
+						lastEnd[p] = matchEnd == matchStart ? matchEnd + 1 : matchEnd;
+					}
+				}
+				if (nanos != null) {
+					nanos[p] += System.nanoTime() - start;
+				}
+			}
+			if (cut) {
+				// go over the window again with more of the value
+				for (int p = 0; p < parts.length; p++) {
+					lastEnd[p] = windowLastEnd[p];
+					if (found[p] != null) {
+						found[p].subList(windowFound[p], found[p].size()).clear();
+					}
+				}
+				chars = Arrays.copyOf(chars, chars.length * 2);
+				out = CharBuffer.wrap(chars);
+				out.position(filled);
+				continue;
+			}
+			if (eof) {
+				break;
+			}
+			// keep the overlap and its context for the next window
+			long nextBase = Math.max(0, pos + size - CONTEXT);
+			int keep = (int) (base + filled - nextBase);
+			System.arraycopy(chars, (int) (nextBase - base), chars, 0, keep);
+			out.clear();
+			out.position(keep);
+			base = nextBase;
+			pos += size;
+		}
+		if (nanos != null) {
+			for (int p = 0; p < parts.length; p++) {
+				profile.finderRun(finders[partOf[p]], nanos[p], found[p] == null ? 0 : found[p].size());
+			}
+		}
+		return found;
+	}
+
+	private Matcher matcher(RegexFinder part) {
+		Matcher matcher = matchers.get(part);
+		if (matcher == null) {
+			matcher = part.getPattern().matcher("");
+			matchers.put(part, matcher);
+		}
+		return matcher;
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.io.orc.OrcFile;
+import org.apache.hadoop.hive.ql.io.orc.Writer;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileScannerTest {
+
+	private static final int COLUMNS = 3;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * @return rows of two columns of random values and one of few distinct
+	 * ones, as ORC keeps in a dictionary. Empty values stand for null, which
+	 * a text file cannot tell apart.
+	 */
+	private static List<Object[]> rows(Random random, int count) {
+		String[] few = new String[20];
+		for (int i = 0; i < few.length; i++) {
+			few[i] = ScanFixture.value(random, 1 + random.nextInt(30));
+		}
+		List<Object[]> rows = ScanFixture.rows(random, count, COLUMNS, 80);
+		for (Object[] row : rows) {
+			row[2] = new Text(few[random.nextInt(few.length)]);
+			for (int c = 0; c < COLUMNS; c++) {
+				if (row[c] == null) {
+					row[c] = new Text();
+				}
+			}
+		}
+		return rows;
+	}
+
+	private static void writeText(File file, List<Object[]> rows) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			for (Object[] row : rows) {
+				for (int c = 0; c < row.length; c++) {
+					if (c > 0) {
+						out.write('\t');
+					}
+					Text value = (Text) row[c];
+					out.write(value.getBytes(), 0, value.getLength());
+				}
+				out.write('\n');
+			}
+		}
+	}
+
+	private static void writeOrc(File file, List<Object[]> rows) throws IOException {
+		List<String> names = new ArrayList<>();
+		for (int c = 0; c < COLUMNS; c++) {
+			names.add("c" + c);
+		}
+		ObjectInspector inspector = ObjectInspectorFactory.getStandardStructObjectInspector(names,
+				Arrays.asList(ScanFixture.textColumns(COLUMNS)));
+		// small stripes, scanned as tasks of their own
+		Writer writer = OrcFile.createWriter(new Path(file.toURI()), OrcFile.writerOptions(new Configuration())
+				.inspector(inspector).stripeSize(64 << 10).bufferSize(4 << 10));
+		for (Object[] row : rows) {
+			writer.addRow(Arrays.asList(row));
+		}
+		writer.close();
+	}
+
+	/**
+	 * @return the counts of output, summed by the rest of their line: the
+	 * matches of a dictionary entry are written once for all its rows.
+	 */
+	private static Map<String, Long> counts(List<String> output) {
+		Map<String, Long> counts = new TreeMap<>();
+		for (String line : ScanFixture.results(output)) {
+			String[] fields = line.split("\t", -1);
+			String key = fields[0] + "\t" + fields[2] + "\t" + fields[3] + "\t" + fields[4];
+			Long count = counts.get(key);
+			counts.put(key, (count == null ? 0 : count) + Long.parseLong(fields[1]));
+		}
+		return counts;
+	}
+
+	@Test
+	public void scansAsScanPaths() throws Exception {
+		List<Object[]> rows = rows(new Random(16), 6000);
+		File dir = folder.newFolder("table");
+		writeText(new File(dir, "000000_0"), rows.subList(0, 1000));
+		writeText(new File(dir, "000001_0"), rows.subList(1000, 2000));
+		writeOrc(new File(dir, "000002_0"), rows.subList(2000, rows.size()));
+		// left out, as by Hive
+		writeText(new File(dir, "_SUCCESS"), rows.subList(0, 10));
+		writeText(new File(dir, ".000000_0.crc"), rows.subList(0, 10));
+
+		Map<String, Long> expected = counts(ScanFixture.scan(new ScanPathsUDF(), ScanFixture.conf(),
+				ScanFixture.textColumns(COLUMNS), rows));
+		assertTrue(expected.size() > 4);
+
+		for (int threads : new int[] {1, 4}) {
+			FileScanner scanner = new FileScanner();
+			scanner.setConf(new Configuration());
+			scanner.setThreads(threads);
+			scanner.setDelimiter((byte) '\t');
+			StringWriter out = new StringWriter();
+			scanner.scan(Collections.singletonList(new Path(dir.toURI())), out);
+			assertEquals(expected, counts(Arrays.asList(out.toString().split("\n"))));
+			// the stripes keep the third column in dictionaries
+			assertTrue(out.toString().matches("(?s).*\nDictionaryValues\t[1-9].*"));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.junit.Test;
+
+import io.dataapps.chlorine.finder.Finder;
+import io.dataapps.chlorine.pattern.RegexFinder;
+
+public class FinderPlannerTest {
+
+	private final Finder birthDate = new RegexFinder("Birth Date", "\\d{4}-\\d{2}-\\d{2}");
+	private final FinderPlanner planner;
+
+	public FinderPlannerTest() throws Exception {
+		List<Finder> finders = new ArrayList<>(FinderRegistry.lookup(new ScanOptions(null)).getFinders());
+		finders.add(birthDate);
+		planner = new FinderPlanner(finders);
+	}
+
+	private List<Finder> plan(PrimitiveObjectInspector inspector) {
+		return Arrays.asList(planner.plan(inspector));
+	}
+
+	private static List<String> names(List<Finder> finders) {
+		List<String> names = new ArrayList<>();
+		for (Finder finder : finders) {
+			names.add(finder.getName());
+		}
+		return names;
+	}
+
+	@Test
+	public void runsUnprofiledFindersOnEveryType() {
+		PrimitiveObjectInspector[] inspectors = {
+			PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+			PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+			PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+			PrimitiveObjectInspectorFactory.javaFloatObjectInspector,
+			PrimitiveObjectInspectorFactory.javaBooleanObjectInspector,
+			PrimitiveObjectInspectorFactory.javaDateObjectInspector,
+			PrimitiveObjectInspectorFactory.javaTimestampObjectInspector,
+			PrimitiveObjectInspectorFactory.javaHiveIntervalDayTimeObjectInspector,
+		};
+		for (PrimitiveObjectInspector inspector : inspectors) {
+			assertTrue(inspector.getTypeName(), plan(inspector).contains(birthDate));
+		}
+	}
+
+	@Test
+	public void leavesOutBuiltInFindersWhichCannotMatch() {
+		assertEquals(Arrays.asList(birthDate), plan(PrimitiveObjectInspectorFactory.javaDateObjectInspector));
+		assertEquals(Arrays.asList(birthDate), plan(PrimitiveObjectInspectorFactory.javaBooleanObjectInspector));
+		List<String> doubles = names(plan(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector));
+		assertTrue(doubles.toString(), doubles.contains("Credit Card"));
+		assertTrue(doubles.toString(), !doubles.contains("Email"));
+		assertEquals(0, plan(PrimitiveObjectInspectorFactory.javaVoidObjectInspector).size());
+	}
+}
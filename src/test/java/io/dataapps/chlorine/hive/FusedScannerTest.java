@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.junit.Test;
+
+public class FusedScannerTest {
+
+	private static final int COLUMNS = 24;
+
+	private static List<String> scan(List<Object[]> rows, String fused, String prefilter) throws Exception {
+		ObjectInspector[] inspectors = ScanFixture.textColumns(COLUMNS);
+		return ScanFixture.results(ScanFixture.scan(new ScanUDF(),
+				ScanFixture.conf(ScanOptions.FUSED, fused, ScanOptions.FUSED_MAX_VALUE_LENGTH, "40",
+						ScanOptions.PREFILTER, prefilter),
+				inspectors, rows));
+	}
+
+	@Test
+	public void scansAsPerColumn() throws Exception {
+		// mostly shorter than what is fused, some longer
+		List<Object[]> rows = ScanFixture.rows(new Random(18), 1000, COLUMNS, 60);
+		List<String> perColumn = scan(rows, "false", "false");
+		assertTrue(perColumn.size() > 4);
+		assertEquals(perColumn, scan(rows, "true", "false"));
+		assertEquals(perColumn, scan(rows, "true", "true"));
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.management.ThreadMXBean;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class JsonConverterTest {
+
+	private static final ObjectInspector STRING = PrimitiveObjectInspectorFactory.javaStringObjectInspector;
+
+	private static ObjectInspector person() {
+		return ObjectInspectorFactory.getStandardStructObjectInspector(
+				Arrays.asList("name", "age", "tags", "attrs"),
+				Arrays.<ObjectInspector>asList(STRING,
+						PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+						ObjectInspectorFactory.getStandardListObjectInspector(STRING),
+						ObjectInspectorFactory.getStandardMapObjectInspector(STRING, STRING)));
+	}
+
+	private static List<Object> person(String name, Integer age, List<String> tags, Map<String, String> attrs) {
+		return Arrays.<Object>asList(name, age, tags, attrs);
+	}
+
+	@Test
+	public void convertsNestedValues() {
+		JsonConverter converter = new JsonConverter(person());
+		Map<String, String> attrs = new LinkedHashMap<>();
+		attrs.put("email", "jane.doe@example.com");
+		attrs.put("quote", "say \"hi\"");
+		Object json = converter.convert(person("Jane", 42, Arrays.asList("a", "b"), attrs));
+		assertEquals("{\"name\":\"Jane\",\"age\":42,\"tags\":[\"a\",\"b\"],"
+				+ "\"attrs\":{\"email\":\"jane.doe@example.com\",\"quote\":\"say \\\"hi\\\"\"}}",
+				json.toString());
+	}
+
+	@Test
+	public void convertsNulls() {
+		JsonConverter converter = new JsonConverter(person());
+		Object json = converter.convert(person(null, null, Collections.<String>emptyList(),
+				Collections.<String, String>emptyMap()));
+		assertEquals("{\"name\":null,\"age\":null,\"tags\":[],\"attrs\":{}}", json.toString());
+	}
+
+	@Test
+	public void reusesItsText() {
+		JsonConverter converter = new JsonConverter(STRING);
+		Text first = (Text) converter.convert("first");
+		assertEquals("\"first\"", first.toString());
+		// the second root value is written after a separator, which is left out
+		Text second = (Text) converter.convert("second");
+		assertSame(first, second);
+		assertEquals("\"second\"", second.toString());
+		Text third = (Text) converter.convert("3");
+		assertSame(first, third);
+		assertEquals("\"3\"", third.toString());
+	}
+
+	@Test
+	public void growsItsBuffer() {
+		JsonConverter converter = new JsonConverter(STRING);
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			value.append((char) ('a' + i % 26));
+		}
+		converter.convert("short");
+		assertEquals("\"" + value + "\"", converter.convert(value.toString()).toString());
+		// a shorter value after a longer one leaves nothing of it behind
+		assertEquals("\"short\"", converter.convert("short").toString());
+	}
+
+	@Test
+	public void writesUtf8() {
+		JsonConverter converter = new JsonConverter(STRING);
+		// escaped, as the sources are not compiled as UTF-8
+		String value = "caf\u00e9 \u6771\u4eac \u0434\u0430";
+		Text json = (Text) converter.convert(value);
+		assertArrayEquals(("\"" + value + "\"").getBytes(StandardCharsets.UTF_8),
+				Arrays.copyOf(json.getBytes(), json.getLength()));
+	}
+
+	@Test
+	public void allocatesLittlePerRow() {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		JsonConverter converter = new JsonConverter(person());
+		Map<String, String> attrs = new LinkedHashMap<>();
+		attrs.put("email", "jane.doe@example.com");
+		attrs.put("phone", "(408) 555-1234");
+		Object row = person("Jane", 42, Arrays.asList("a", "b", "c"), attrs);
+		// warmed up, so that what the JIT compiles away is not counted
+		for (int i = 0; i < 50000; i++) {
+			converter.convert(row);
+		}
+		long thread = Thread.currentThread().getId();
+		int rows = 10000;
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < rows; i++) {
+			converter.convert(row);
+		}
+		long perRow = (threads.getThreadAllocatedBytes(thread) - before) / rows;
+		// the iterators of the list and the map, no copy of the row
+		assertTrue(perRow + " bytes per row", perRow < 128);
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class KnownValueFinderTest {
+
+	private static final long SEED = 19;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Builds a dictionary of the lines and maps it.
+	 */
+	private KnownValueFinder open(String... lines) throws IOException {
+		File file = folder.newFile();
+		StringBuilder values = new StringBuilder();
+		for (String line : lines) {
+			values.append(line).append('\n');
+		}
+		KnownValueBuilder.build("Customer", new BufferedReader(new StringReader(values.toString())), file, SEED);
+		return KnownValueFinder.open(file);
+	}
+
+	@Test
+	public void findsTheValuesItHolds() throws Exception {
+		KnownValueFinder finder = open("123-45-6789", "jane.doe@example.com", "987-65-4321", "123-45-6789");
+		assertEquals("Customer", finder.getName());
+		assertEquals(3, finder.getCount());
+		assertEquals(SEED, finder.getSeed());
+		assertEquals(Arrays.asList("123-45-6789", "jane.doe@example.com"),
+				finder.find("ssn 123-45-6789, mail jane.doe@example.com"));
+		// not a token of its own
+		assertEquals(Collections.emptyList(), finder.find("1123-45-6789 123-45-67890 x123-45-6789"));
+		assertEquals(Collections.emptyList(), finder.find("123-45-6788 jane.doe@example.org"));
+	}
+
+	@Test
+	public void trimsDotsAndDashes() throws Exception {
+		KnownValueFinder finder = open("123-45-6789", "jane.doe@example.com", "-555-", ".x.");
+		assertEquals(Arrays.asList("123-45-6789", "jane.doe@example.com", "123-45-6789"),
+				finder.find("ssn -123-45-6789. mail ..jane.doe@example.com--, (123-45-6789)"));
+		// values which are not tokens are left out of the dictionary
+		assertEquals(2, finder.getCount());
+		assertEquals(Collections.emptyList(), finder.find("-555- .x. 555 x"));
+	}
+
+	@Test
+	public void foldsAsciiCase() throws Exception {
+		KnownValueFinder finder = open("Jane.Doe@Example.com", "caf\u00e9");
+		assertEquals(Arrays.asList("JANE.DOE@EXAMPLE.COM", "jane.doe@example.com"),
+				finder.find("JANE.DOE@EXAMPLE.COM jane.doe@example.com"));
+		assertEquals(Arrays.asList("CAF\u00e9"), finder.find("CAF\u00e9"));
+		// only ASCII letters are folded
+		assertEquals(Collections.emptyList(), finder.find("CAF\u00c9"));
+	}
+
+	@Test
+	public void findsNonAsciiValues() throws Exception {
+		// escaped, as the sources are not compiled as UTF-8; two of them have surrogate pairs
+		KnownValueFinder finder = open("\u6771\u4eac-42", "x\ud83d\ude00y", "\ud842\udfb7\u91ce\u5bb6",
+				"\u0434\u0430\u043d\u043d\u044b\u0435");
+		assertEquals(Arrays.asList("\u6771\u4eac-42", "x\ud83d\ude00y", "\ud842\udfb7\u91ce\u5bb6"),
+				finder.find("\u4f4f\u6240 \u6771\u4eac-42, x\ud83d\ude00y \ud842\udfb7\u91ce\u5bb6."));
+		assertEquals(Arrays.asList("\u0434\u0430\u043d\u043d\u044b\u0435"),
+				finder.find("(\u0434\u0430\u043d\u043d\u044b\u0435)"));
+		// the other half of a pair is another value
+		assertEquals(Collections.emptyList(), finder.find("x\ud83d\ude01y \ud842\udfb8\u91ce\u5bb6"));
+	}
+
+	@Test
+	public void findsNothingInAnEmptyDictionary() throws Exception {
+		KnownValueFinder finder = open("", "not a token", "-");
+		assertEquals(0, finder.getCount());
+		assertEquals(Collections.emptyList(), finder.find("123-45-6789 jane.doe@example.com a b"));
+		assertEquals(Collections.emptyList(), finder.find(""));
+	}
+
+	@Test
+	public void findsEachOfManyValues() throws Exception {
+		Random random = new Random(19);
+		String[] values = new String[5000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = String.format("%03d-%02d-%04d", random.nextInt(1000), random.nextInt(100),
+					random.nextInt(10000));
+		}
+		KnownValueFinder finder = open(values);
+		for (String value : values) {
+			assertEquals(Arrays.asList(value), finder.find("is " + value + "."));
+		}
+		int found = 0;
+		for (int i = 0; i < 5000; i++) {
+			found += finder.find(String.format("%03d-%02d-%04d", random.nextInt(1000), random.nextInt(100),
+					random.nextInt(10000))).size();
+		}
+		// of 10^9 SSNs, 5000 known
+		assertTrue(found + " found", found < 5);
+	}
+
+	@Test
+	public void rejectsTruncatedFiles() throws Exception {
+		File file = folder.newFile();
+		String values = "123-45-6789\njane.doe@example.com\n";
+		KnownValueBuilder.build("Customer", new BufferedReader(new StringReader(values)), file, SEED);
+		long length = file.length();
+		for (long cut : new long[] {length - 1, length - 8, KnownValueFinder.HEADER + 3, KnownValueFinder.HEADER - 1,
+				2, 0}) {
+			try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+				out.setLength(cut);
+			}
+			try {
+				KnownValueFinder.open(file);
+				fail("opened " + cut + " of " + length + " bytes");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.junit.Test;
+
+public class MatchValuesTest {
+
+	private static MatchValues of(String... options) throws UDFArgumentException {
+		return MatchValues.of(new ScanOptions(ScanFixture.conf(options)));
+	}
+
+	private static String list(MatchValues values, String... result) {
+		return values.append(Arrays.asList(result), new StringBuilder()).toString();
+	}
+
+	@Test
+	public void fingerprintsNeedASeed() {
+		for (String[] options : new String[][] {{}, {ScanOptions.OUTPUT_FINGERPRINT_SEED, "0"},
+				{ScanOptions.OUTPUT_FINGERPRINT_SEED, " "}}) {
+			String[] conf = Arrays.copyOf(options, options.length + 2);
+			conf[options.length] = ScanOptions.OUTPUT_VALUES;
+			conf[options.length + 1] = MatchValues.FINGERPRINT;
+			try {
+				of(conf);
+				fail(Arrays.toString(conf));
+			} catch (UDFArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void fingerprintsAreTheHashesOfTheSeed() throws Exception {
+		long seed = 0x5eed5eed5eedL;
+		MatchValues values = of(ScanOptions.OUTPUT_VALUES, MatchValues.FINGERPRINT,
+				ScanOptions.OUTPUT_FINGERPRINT_SEED, Long.toString(seed), ScanOptions.OUTPUT_FINGERPRINT_CHARS, "16");
+		String expected = String.format("%016x,%016x", KnownValueFinder.hash("123-45-6789", 0, 11, seed),
+				KnownValueFinder.hash("jane@example.com", 0, 16, seed));
+		assertEquals(expected, list(values, "123-45-6789", "Jane@Example.com"));
+	}
+
+	@Test
+	public void listsRawValuesWithoutASeed() throws Exception {
+		assertEquals("a,b", list(of(ScanOptions.OUTPUT_MAX_VALUES, "2"), "a", "b", "c"));
+		assertEquals("", list(of(ScanOptions.OUTPUT_VALUES, MatchValues.NONE), "a"));
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.junit.Test;
+
+import io.dataapps.chlorine.finder.Finder;
+
+public class PrefilterTest {
+
+	@Test
+	public void rejectsOnlyWhatFindsNothing() throws Exception {
+		Finder[] finders = FinderRegistry.lookup(new ScanOptions(null)).getFinders().toArray(new Finder[0]);
+		Prefilter prefilter = new Prefilter();
+		Random random = new Random(11);
+		int rejected = 0;
+		for (int i = 0; i < 5000; i++) {
+			String value = ScanFixture.value(random, 1 + random.nextInt(60));
+			prefilter.scan(value, finders);
+			for (int k = 0; k < finders.length; k++) {
+				if (!prefilter.admitted(k)) {
+					rejected++;
+					assertTrue(finders[k].getName() + " finds something in " + value,
+							finders[k].find(value).isEmpty());
+				}
+			}
+		}
+		assertTrue("nothing rejected", rejected > 0);
+	}
+
+	@Test
+	public void scansAsWithoutIt() throws Exception {
+		List<Object[]> rows = ScanFixture.rows(new Random(11), 2000, 4, 120);
+		ObjectInspector[] inspectors = ScanFixture.textColumns(4);
+		List<String> without = ScanFixture.results(ScanFixture.scan(new ScanUDF(),
+				ScanFixture.conf(ScanOptions.PREFILTER, "false"), inspectors, rows));
+		List<String> with = ScanFixture.results(ScanFixture.scan(new ScanUDF(),
+				ScanFixture.conf(ScanOptions.PREFILTER, "true"), inspectors, rows));
+		assertTrue(without.size() > 4);
+		assertEquals(without, with);
+	}
+}
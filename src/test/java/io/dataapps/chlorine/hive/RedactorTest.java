@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import io.dataapps.chlorine.finder.Finder;
+
+public class RedactorTest {
+
+	private final Finder[] finders;
+
+	public RedactorTest() throws Exception {
+		finders = FinderRegistry.lookup(new ScanOptions(null)).getFinders().toArray(new Finder[0]);
+	}
+
+	private String redact(Redactor redactor, String value) {
+		return redactor.redact(new Text(value), finders).toString();
+	}
+
+	@Test
+	public void masksEachMatch() {
+		Redactor redactor = new Redactor("*");
+		assertEquals("mail ******************** or call **************",
+				redact(redactor, "mail jane.doe@example.com or call (408) 555-1234"));
+		// a surrogate pair is one char
+		assertEquals("\ud83d\ude00 ******************** \ud83d\ude00",
+				redact(redactor, "\ud83d\ude00 jane.doe@example.com \ud83d\ude00"));
+		assertEquals("[X] or [X], lorem", redact(new Redactor("[X]"), "jane.doe@example.com or 123-45-6789, lorem"));
+	}
+
+	@Test
+	public void returnsWhatFindsNothing() {
+		Text value = new Text("lorem ipsum");
+		assertSame(value, new Redactor("*").redact(value, finders));
+	}
+
+	@Test
+	public void masksWhereMatchesAre() {
+		Redactor redactor = new Redactor("*");
+		Random random = new Random(17);
+		int masked = 0;
+		for (int i = 0; i < 3000; i++) {
+			String value = ScanFixture.value(random, 1 + random.nextInt(80));
+			String redacted = redact(redactor, value);
+			List<List<String>> found = new ArrayList<>();
+			// where found values are, masked or not
+			boolean[] anyFound = new boolean[value.length()];
+			for (Finder finder : finders) {
+				List<String> matches = finder.find(value);
+				found.add(matches);
+				for (String match : matches) {
+					for (int at = value.indexOf(match); at >= 0; at = value.indexOf(match, at + 1)) {
+						Arrays.fill(anyFound, at, at + match.length(), true);
+					}
+				}
+			}
+			String message = value + " as " + redacted;
+			assertEquals(message, value.codePointCount(0, value.length()),
+					redacted.codePointCount(0, redacted.length()));
+			boolean[] isMasked = new boolean[value.length()];
+			for (int c = 0, r = 0; c < value.length(); r++) {
+				int codePoint = value.codePointAt(c);
+				if (redacted.charAt(r) == '*') {
+					assertTrue(message, anyFound[c]);
+					Arrays.fill(isMasked, c, c + Character.charCount(codePoint), true);
+					masked++;
+				} else {
+					assertEquals(message, codePoint, redacted.codePointAt(r));
+					r += Character.charCount(codePoint) - 1;
+				}
+				c += Character.charCount(codePoint);
+			}
+			// each value found is masked where it was found
+			for (List<String> matches : found) {
+				for (String match : matches) {
+					boolean hidden = false;
+					for (int at = value.indexOf(match); at >= 0 && !hidden; at = value.indexOf(match, at + 1)) {
+						hidden = true;
+						for (int c = at; c < at + match.length(); c++) {
+							hidden &= isMasked[c];
+						}
+					}
+					assertTrue(message + " shows " + match, hidden);
+				}
+			}
+		}
+		assertTrue(masked > 0);
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.io.IOContext;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResultsStoreTest {
+
+	private static final int COLUMNS = 3;
+	private static final int FILES = 3;
+	private static final int FILE_ROWS = 40;
+	// the bytes of a row, and of a range of ten of them
+	private static final int ROW_BYTES = 100;
+	private static final String RANGE_BYTES = "1000";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<Object[]> rows = ScanFixture.rows(new Random(21), FILES * FILE_ROWS, COLUMNS, 60);
+	private final Path[] files = new Path[FILES];
+	private String store;
+	private List<String> plain;
+
+	/**
+	 * A task of a scan, reading rows of a file from one to another.
+	 */
+	private static class Split {
+		final int file;
+		final int from;
+		final int to;
+
+		Split(int file, int from, int to) {
+			this.file = file;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		for (int f = 0; f < FILES; f++) {
+			files[f] = write("00000" + f + "_0", FILE_ROWS * ROW_BYTES);
+		}
+		store = new File(folder.getRoot(), "results").getPath();
+		plain = scan(null, 0, wholeFiles());
+		assertTrue(plain.size() > 8);
+	}
+
+	private Path write(String name, int length) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		try (OutputStream out = new FileOutputStream(file)) {
+			out.write(new byte[length]);
+		}
+		return new Path(file.toURI());
+	}
+
+	private static List<Split> wholeFiles() {
+		List<Split> splits = new ArrayList<>();
+		for (int f = 0; f < FILES; f++) {
+			splits.add(new Split(f, 0, FILE_ROWS));
+		}
+		return splits;
+	}
+
+	/**
+	 * @return the files split at rows which are not the first of a range.
+	 */
+	private static List<Split> cutFiles(int at) {
+		List<Split> splits = new ArrayList<>();
+		for (int f = 0; f < FILES; f++) {
+			splits.add(new Split(f, 0, at));
+			splits.add(new Split(f, at, FILE_ROWS));
+		}
+		return splits;
+	}
+
+	/**
+	 * Runs a task per split, with the rows read at the end of each as in a
+	 * text file, sleeping over the rows from sleepFrom on if it is above 0.
+	 * @return the output of all the tasks.
+	 */
+	private List<String> scan(String store, int sleepFrom, List<Split> splits, String... options)
+			throws HiveException, InterruptedException {
+		final List<String> output = new ArrayList<>();
+		for (Split split : splits) {
+			JobConf conf = ScanFixture.conf(options);
+			conf.set("hive.query.string", "select scan(*) from t");
+			conf.set(ScanOptions.RESULTS_RANGE_BYTES, RANGE_BYTES);
+			if (store != null) {
+				conf.set(ScanOptions.RESULTS_STORE, store);
+			}
+			ScanUDF udf = new ScanUDF();
+			udf.configure(MapredContext.init(true, conf));
+			udf.initialize(ScanFixture.textColumns(COLUMNS));
+			udf.setCollector(new Collector() {
+				@Override
+				public void collect(Object input) {
+					StringBuilder line = new StringBuilder();
+					for (Object field : (Object[]) input) {
+						if (line.length() > 0) {
+							line.append('\t');
+						}
+						line.append(field);
+					}
+					output.add(line.toString());
+				}
+			});
+			IOContext io = IOContext.get(conf);
+			io.setInputPath(files[split.file]);
+			for (int r = split.from; r < split.to; r++) {
+				if (sleepFrom > 0 && r >= sleepFrom) {
+					Thread.sleep(2);
+				}
+				io.setCurrentBlockStart((r + 1) * ROW_BYTES);
+				udf.process(rows.get(split.file * FILE_ROWS + r));
+			}
+			udf.close();
+		}
+		return output;
+	}
+
+	/**
+	 * @return the matches of all the tasks, sorted, and their totals of what
+	 * was scanned and found, summed.
+	 */
+	private static List<String> results(List<String> output) {
+		Map<String, Long> totals = new TreeMap<>();
+		List<String> results = new ArrayList<>();
+		for (String line : ScanFixture.results(output)) {
+			String[] fields = line.split("\t");
+			if (fields[2].equals("-2")) {
+				Long total = totals.get(fields[0]);
+				totals.put(fields[0], (total == null ? 0 : total) + Long.parseLong(fields[1]));
+			} else {
+				results.add(line);
+			}
+		}
+		Collections.sort(results);
+		results.add(totals.toString());
+		return results;
+	}
+
+	/**
+	 * @return the sum of the counts of the output rows of type.
+	 */
+	private static long total(List<String> output, String type) {
+		long total = 0;
+		for (String line : output) {
+			if (line.startsWith(type + "\t")) {
+				total += Long.parseLong(line.split("\t")[1]);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return the files in the store which are written aside.
+	 */
+	private int unfinished() {
+		int unfinished = 0;
+		String[] names = new File(store).list();
+		for (String name : names == null ? new String[0] : names) {
+			if (name.startsWith("_")) {
+				unfinished++;
+			}
+		}
+		return unfinished;
+	}
+
+	@Test
+	public void replaysWhatItStored() throws Exception {
+		List<String> first = scan(store, 0, wholeFiles());
+		assertEquals(results(plain), results(first));
+		// the last row of a file is read at its end
+		assertEquals(FILES * (FILE_ROWS / 10 + 1), total(first, "StoredFiles"));
+		List<String> second = scan(store, 0, wholeFiles());
+		assertEquals(results(plain), results(second));
+		assertEquals(rows.size(), total(second, "ReplayedRecords"));
+		assertEquals(0, total(second, "StoredFiles"));
+		assertEquals(0, unfinished());
+	}
+
+	@Test
+	public void rescansChangedFiles() throws Exception {
+		scan(store, 0, wholeFiles());
+		files[1] = write("000001_0", FILE_ROWS * ROW_BYTES + 1);
+		List<String> second = scan(store, 0, wholeFiles());
+		assertEquals(results(plain), results(second));
+		assertEquals(rows.size() - FILE_ROWS, total(second, "ReplayedRecords"));
+		assertTrue(total(second, "StoredFiles") > 0);
+	}
+
+	@Test
+	public void rescansWhatIsSplitOtherwise() throws Exception {
+		// stored as split one way, replayed as split others
+		for (int at : new int[] {15, 0, 23, 15, 0}) {
+			List<String> output = scan(store, 0, at == 0 ? wholeFiles() : cutFiles(at));
+			assertEquals("split at " + at, results(plain), results(output));
+			assertEquals(0, unfinished());
+		}
+		List<String> last = scan(store, 0, wholeFiles());
+		assertEquals(rows.size(), total(last, "ReplayedRecords"));
+		List<String> split = scan(store, 0, cutFiles(23));
+		long replayed = total(split, "ReplayedRecords");
+		assertTrue(replayed > 0 && replayed < rows.size());
+	}
+
+	@Test
+	public void storesNothingPastTheBudget() throws Exception {
+		List<String> cut = scan(store, 20, Collections.singletonList(new Split(0, 0, FILE_ROWS)),
+				ScanOptions.BUDGET_MILLIS, "1");
+		long scanned = total(cut, "ScannedRecords");
+		assertTrue(scanned < FILE_ROWS);
+		assertTrue(total(cut, "SkippedRecords") > 0);
+		// the ranges read whole before the budget ran out
+		assertEquals((scanned + 1) / 10, total(cut, "StoredFiles"));
+		assertEquals(0, unfinished());
+		List<String> second = scan(store, 0, wholeFiles());
+		assertEquals(results(plain), results(second));
+		assertEquals((scanned + 1) / 10 * 10 - 1, total(second, "ReplayedRecords"));
+	}
+}
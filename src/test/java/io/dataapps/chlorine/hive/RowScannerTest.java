@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import io.dataapps.chlorine.finder.Finder;
+
+public class RowScannerTest {
+
+	private static RowScanner scanner(String constant, int columns) throws Exception {
+		ObjectInspector[] arguments = new ObjectInspector[columns + 1];
+		arguments[0] = PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+				TypeInfoFactory.stringTypeInfo, constant == null ? null : new Text(constant));
+		for (int i = 1; i < arguments.length; i++) {
+			arguments[i] = ScanFixture.TEXT;
+		}
+		return new RowScanner(arguments, 0, new ScanOptions(null));
+	}
+
+	private static List<String> names(RowScanner scanner) {
+		List<String> names = new ArrayList<>();
+		for (Finder finder : scanner.getLookup().getFinders()) {
+			names.add(finder.getName());
+		}
+		return names;
+	}
+
+	@Test
+	public void selectsFindersWhichAllResolve() throws Exception {
+		RowScanner scanner = scanner(" email , SSN-dashes", 2);
+		assertEquals("[Email, SSN-dashes]", names(scanner).toString());
+		assertEquals(2, scanner.getColumnCount());
+		assertEquals(" email , SSN-dashes", scanner.getSelection());
+	}
+
+	@Test
+	public void scansOtherConstants() throws Exception {
+		int all = FinderRegistry.lookup(new ScanOptions(null)).getFinders().size();
+		for (String constant : new String[] {"jane.doe@example.com", "Email,Emial", "", ",", null}) {
+			RowScanner scanner = scanner(constant, 2);
+			assertNull(constant, scanner.getSelection());
+			assertEquals(constant, 3, scanner.getColumnCount());
+			assertEquals(constant, all, names(scanner).size());
+		}
+		// the only argument is a column
+		RowScanner scanner = scanner("Email", 0);
+		assertNull(scanner.getSelection());
+		assertEquals(1, scanner.getColumnCount());
+	}
+}
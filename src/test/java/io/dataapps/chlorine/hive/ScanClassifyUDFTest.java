@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class ScanClassifyUDFTest {
+
+	/**
+	 * @return the verdicts of the types of a column of values, with their
+	 * matching values, as in "CONFIRMED 5".
+	 */
+	private static Map<String, String> classify(int confirmHits, int ruleOutValues, List<String> values)
+			throws Exception {
+		ObjectInspector[] inspectors = {
+			PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(TypeInfoFactory.intTypeInfo,
+					new IntWritable(confirmHits)),
+			PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(TypeInfoFactory.intTypeInfo,
+					new IntWritable(ruleOutValues)),
+			ScanFixture.TEXT};
+		List<Object[]> rows = new ArrayList<>();
+		for (String value : values) {
+			rows.add(new Object[] {null, null, value == null ? null : new Text(value)});
+		}
+		Map<String, String> verdicts = new HashMap<>();
+		for (String line : ScanFixture.scan(new ScanClassifyUDF(), ScanFixture.conf(), inspectors, rows)) {
+			String[] fields = line.split("\t", -1);
+			if (fields[2].equals("0")) {
+				verdicts.put(fields[0], fields[3] + " " + fields[1]);
+			}
+		}
+		return verdicts;
+	}
+
+	private static List<String> values(int count, String value, int... at) {
+		List<String> values = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			values.add(i % 7 == 3 ? null : "lorem ipsum");
+		}
+		for (int i : at) {
+			values.set(i, value);
+		}
+		return values;
+	}
+
+	@Test
+	public void confirmsAndRulesOut() throws Exception {
+		Map<String, String> verdicts = classify(3, 20, values(100, "mail jane.doe@example.com", 5, 30, 31));
+		assertEquals("CONFIRMED 3", verdicts.get("Email"));
+		assertEquals("RULED_OUT 0", verdicts.get("SSN-dashes"));
+	}
+
+	@Test
+	public void rulesOutOnlyWhatNeverMatched() throws Exception {
+		// matches too rare to be confirmed, after as many clean values as rule a type out
+		Map<String, String> verdicts = classify(5, 20, values(200, "mail jane.doe@example.com", 10, 90, 150));
+		assertEquals("UNDECIDED 3", verdicts.get("Email"));
+		assertEquals("RULED_OUT 0", verdicts.get("SSN-dashes"));
+		// never ruled out with 0
+		verdicts = classify(5, 0, values(200, "mail jane.doe@example.com", 10));
+		assertEquals("UNDECIDED 1", verdicts.get("Email"));
+		assertTrue(verdicts.get("SSN-dashes"), verdicts.get("SSN-dashes").startsWith("UNDECIDED"));
+	}
+}
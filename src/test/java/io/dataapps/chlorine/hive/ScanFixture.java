@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDTF;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Random values with something to find in some of them, and a way to run
+ * a scan over rows of them, for the tests which check that a way of
+ * scanning gives the same output as another.
+ */
+final class ScanFixture {
+
+	static final ObjectInspector TEXT = PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+
+	// escaped, as the sources are not compiled as UTF-8
+	private static final String[] WORDS = {"lorem", "ipsum", "dolor", "sit", "amet", "elit",
+		"donn\u00e9es", "Stra\u00dfe", "\u6771\u4eac", "\u0434\u0430\u043d\u043d\u044b\u0435",
+		"caf\u00e9", "\ud83d\ude00", "a,b", "--", "(", "@", "1999", "555"};
+	private static final String[] SENSITIVE = {"jane.doe@example.com", "j.smith@mail.example.org",
+		"123-45-6789", "(408) 555-1234", "408-555-1234", "10.20.30.40", "192.168.1.254",
+		"4111 1111 1111 1111", "5500-0000-0000-0004", "http://example.com/a?b=c",
+		"https://www.example.org/", "jane.doe@example", "123456789", "999.1.1.1"};
+
+	private ScanFixture() {
+	}
+
+	/**
+	 * @return a value of about length chars of words, one in four of them
+	 * something a finder may find.
+	 */
+	static String value(Random random, int length) {
+		StringBuilder value = new StringBuilder();
+		while (value.length() < length) {
+			if (value.length() > 0) {
+				value.append(random.nextInt(8) == 0 ? ", " : " ");
+			}
+			if (random.nextInt(4) == 0) {
+				value.append(SENSITIVE[random.nextInt(SENSITIVE.length)]);
+			} else {
+				value.append(WORDS[random.nextInt(WORDS.length)]);
+			}
+		}
+		return value.toString();
+	}
+
+	/**
+	 * @return rows of columns Text values of up to length chars, some null.
+	 */
+	static List<Object[]> rows(Random random, int count, int columns, int length) {
+		List<Object[]> rows = new ArrayList<>();
+		for (int r = 0; r < count; r++) {
+			Object[] row = new Object[columns];
+			for (int c = 0; c < columns; c++) {
+				if (random.nextInt(20) > 0) {
+					row[c] = new Text(value(random, 1 + random.nextInt(length)));
+				}
+			}
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	static ObjectInspector[] textColumns(int columns) {
+		ObjectInspector[] inspectors = new ObjectInspector[columns];
+		Arrays.fill(inspectors, TEXT);
+		return inspectors;
+	}
+
+	/**
+	 * Runs udf over rows with the options of conf.
+	 * @return its output rows, as tab separated lines.
+	 */
+	static List<String> scan(GenericUDTF udf, JobConf conf, ObjectInspector[] inspectors, List<Object[]> rows)
+			throws HiveException {
+		final List<String> output = new ArrayList<>();
+		udf.configure(MapredContext.init(true, conf));
+		udf.initialize(inspectors);
+		udf.setCollector(new Collector() {
+			@Override
+			public void collect(Object input) {
+				StringBuilder line = new StringBuilder();
+				for (Object field : (Object[]) input) {
+					if (line.length() > 0) {
+						line.append('\t');
+					}
+					line.append(field);
+				}
+				output.add(line.toString());
+			}
+		});
+		for (Object[] row : rows) {
+			udf.process(row);
+		}
+		udf.close();
+		return output;
+	}
+
+	/**
+	 * @return the matches in output, sorted, and the totals of what was
+	 * scanned and found, leaving out the rows which tell how it was scanned.
+	 */
+	static List<String> results(List<String> output) {
+		List<String> results = new ArrayList<>();
+		for (String line : output) {
+			if (!line.contains("\t-2\t") || line.startsWith("TotalRecords\t")
+					|| line.startsWith("TotalMatches\t") || line.startsWith("MatchedRecords\t")
+					|| line.startsWith("TotalSize\t")) {
+				results.add(line);
+			}
+		}
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * @return a configuration with no defaults loaded, and options set to
+	 * names and values in turn.
+	 */
+	static JobConf conf(String... options) {
+		JobConf conf = new JobConf(false);
+		for (int i = 0; i < options.length; i += 2) {
+			conf.set(options[i], options[i + 1]);
+		}
+		return conf;
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ * Runs the vectorized expressions of the scalar functions over batches with
+ * nulls, a selection or a repeating value, and checks each row against the
+ * function itself.
+ */
+public class SensitiveVectorExpressionTest {
+
+	private static final int SIZE = VectorizedRowBatch.DEFAULT_SIZE;
+
+	private final Random random = new Random(10);
+
+	/**
+	 * A batch of a string column, whose values are slices of one buffer, and
+	 * an output column.
+	 */
+	private static class Batch {
+		final VectorizedRowBatch batch = new VectorizedRowBatch(2, SIZE);
+		final BytesColumnVector input = new BytesColumnVector(SIZE);
+		final String[] values = new String[SIZE];
+
+		Batch(ColumnVector output) {
+			batch.cols[0] = input;
+			batch.cols[1] = output;
+			batch.size = SIZE;
+		}
+	}
+
+	/**
+	 * @return a batch of random values, one in eight null if withNulls, with
+	 * one row in three selected if withSelection, or of one value repeated,
+	 * null if withNulls, if repeating.
+	 */
+	private Batch batch(ColumnVector output, boolean withNulls, boolean withSelection, boolean repeating) {
+		Batch batch = new Batch(output);
+		byte[] buffer = new byte[SIZE * 256];
+		int at = 0;
+		for (int i = 0; i < SIZE; i++) {
+			if (withNulls && (repeating || random.nextInt(8) == 0)) {
+				batch.input.isNull[i] = true;
+				batch.input.noNulls = false;
+				continue;
+			}
+			byte[] value = ScanFixture.value(random, 1 + random.nextInt(80)).getBytes(StandardCharsets.UTF_8);
+			// amid bytes which are not part of the value
+			buffer[at++] = '9';
+			System.arraycopy(value, 0, buffer, at, value.length);
+			batch.input.setRef(i, buffer, at, value.length);
+			batch.values[i] = new String(value, StandardCharsets.UTF_8);
+			at += value.length;
+		}
+		batch.input.isRepeating = repeating;
+		if (withSelection) {
+			int n = 0;
+			for (int i = 0; i < SIZE; i += 3) {
+				batch.batch.selected[n++] = i;
+			}
+			batch.batch.selectedInUse = true;
+			batch.batch.size = n;
+		}
+		return batch;
+	}
+
+	/**
+	 * @return the rows of the batch, as the expressions read them.
+	 */
+	private static List<Integer> rows(Batch batch) {
+		List<Integer> rows = new ArrayList<>();
+		for (int j = 0; j < batch.batch.size; j++) {
+			rows.add(batch.batch.selectedInUse ? batch.batch.selected[j] : j);
+		}
+		return rows;
+	}
+
+	private static Object evaluate(GenericUDF udf, String value) throws Exception {
+		return udf.evaluate(new GenericUDF.DeferredObject[] {
+			new GenericUDF.DeferredJavaObject(new Text(value))});
+	}
+
+	private static GenericUDF udf(SensitiveUDF udf, String finders) throws Exception {
+		ObjectInspector text = PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+		udf.initialize(finders == null ? new ObjectInspector[] {text} : new ObjectInspector[] {text,
+			PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+					PrimitiveObjectInspectorFactory.writableStringObjectInspector.getTypeInfo(), new Text(finders))});
+		return udf;
+	}
+
+	/**
+	 * Runs expression over batches of every kind, and checks each row read
+	 * against udf.
+	 */
+	private void check(VectorExpression expression, GenericUDF udf, boolean bytesOutput) throws Exception {
+		int found = 0;
+		for (int kind = 0; kind < 8; kind++) {
+			boolean withNulls = (kind & 1) != 0;
+			boolean withSelection = (kind & 2) != 0;
+			boolean repeating = (kind & 4) != 0;
+			for (int round = 0; round < (repeating ? 8 : 1); round++) {
+				ColumnVector output = bytesOutput ? new BytesColumnVector(SIZE) : new LongColumnVector(SIZE);
+				Batch batch = batch(output, withNulls && (!repeating || round == 0), withSelection, repeating);
+				expression.evaluate(batch.batch);
+				String message = "nulls " + withNulls + ", selection " + withSelection + ", repeating " + repeating;
+				assertEquals(message, repeating, output.isRepeating);
+				for (int i : rows(batch)) {
+					int r = repeating ? 0 : i;
+					String value = batch.values[r];
+					assertEquals(message, value == null, !output.noNulls && output.isNull[r]);
+					if (value == null) {
+						continue;
+					}
+					Object expected = evaluate(udf, value);
+					Object actual;
+					if (bytesOutput) {
+						BytesColumnVector bytes = (BytesColumnVector) output;
+						actual = new Text(new String(bytes.vector[r], bytes.start[r], bytes.length[r],
+								StandardCharsets.UTF_8));
+					} else {
+						long result = ((LongColumnVector) output).vector[r];
+						actual = expected instanceof BooleanWritable
+								? new BooleanWritable(result == 1)
+								: new LongWritable(result);
+					}
+					assertEquals(message + ", " + value, expected, actual);
+					if (!expected.toString().matches("false|0|")) {
+						found++;
+					}
+				}
+			}
+		}
+		assertTrue(found > 0);
+	}
+
+	@Test
+	public void hasSensitive() throws Exception {
+		check(new VectorHasSensitive(0, 1), udf(new HasSensitiveUDF(), null), false);
+		check(new VectorHasSensitive.WithFinders(0, "Email".getBytes(StandardCharsets.UTF_8), 1),
+				udf(new HasSensitiveUDF(), "Email"), false);
+	}
+
+	@Test
+	public void sensitiveTypes() throws Exception {
+		check(new VectorSensitiveTypes(0, 1), udf(new SensitiveTypesUDF(), null), true);
+	}
+
+	@Test
+	public void sensitiveCount() throws Exception {
+		check(new VectorSensitiveCount(0, 1), udf(new SensitiveCountUDF(), null), false);
+		check(new VectorSensitiveCount.WithFinders(0, "Email,SSN-dashes".getBytes(StandardCharsets.UTF_8), 1),
+				udf(new SensitiveCountUDF(), "Email,SSN-dashes"), false);
+	}
+
+	@Test
+	public void filtersWhatHasSensitive() throws Exception {
+		FilterHasSensitive filter = new FilterHasSensitive(0);
+		GenericUDF udf = udf(new HasSensitiveUDF(), null);
+		int kept = 0;
+		for (int kind = 0; kind < 8; kind++) {
+			boolean withNulls = (kind & 1) != 0;
+			boolean withSelection = (kind & 2) != 0;
+			boolean repeating = (kind & 4) != 0;
+			for (int round = 0; round < (repeating ? 8 : 1); round++) {
+				Batch batch = batch(new LongColumnVector(SIZE), withNulls && (!repeating || round == 0),
+						withSelection, repeating);
+				List<Integer> expected = new ArrayList<>();
+				for (int i : rows(batch)) {
+					String value = batch.values[repeating ? 0 : i];
+					if (value != null && evaluate(udf, value).toString().equals("true")) {
+						expected.add(i);
+					}
+				}
+				int read = rows(batch).size();
+				filter.evaluate(batch.batch);
+				String message = "nulls " + withNulls + ", selection " + withSelection + ", repeating " + repeating;
+				if (repeating) {
+					// a repeating value keeps all the rows or none
+					assertEquals(message, expected.isEmpty() ? 0 : read, batch.batch.size);
+				} else {
+					assertEquals(message, expected, rows(batch));
+				}
+				kept += batch.batch.size;
+			}
+		}
+		assertTrue(kept > 0);
+	}
+}
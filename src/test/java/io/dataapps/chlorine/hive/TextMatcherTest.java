@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import io.dataapps.chlorine.finder.Finder;
+
+public class TextMatcherTest {
+
+	private final List<Finder> finders;
+	private final TextMatcher matcher = new TextMatcher();
+	private long found;
+
+	public TextMatcherTest() throws Exception {
+		finders = FinderRegistry.lookup(new ScanOptions(null)).getFinders();
+	}
+
+	private void check(Text value) {
+		String string = value.toString();
+		for (Finder finder : finders) {
+			List<String> expected = finder.find(string);
+			String message = finder.getName() + " in " + string;
+			assertEquals(message, expected, matcher.find(finder));
+			assertEquals(message, expected.size(), matcher.count(finder));
+			assertEquals(message, !expected.isEmpty(), matcher.matches(finder));
+			found += expected.size();
+		}
+	}
+
+	@Test
+	public void findsAsInStrings() {
+		Random random = new Random(15);
+		for (int i = 0; i < 3000; i++) {
+			Text value = new Text(ScanFixture.value(random, 1 + random.nextInt(80)));
+			matcher.reset(value);
+			check(value);
+		}
+		assertTrue(found > 0);
+	}
+
+	@Test
+	public void findsInSlices() {
+		Random random = new Random(15);
+		for (int i = 0; i < 1000; i++) {
+			Text value = new Text(ScanFixture.value(random, 1 + random.nextInt(80)));
+			// the value amid other bytes
+			byte[] bytes = new byte[value.getLength() + 8];
+			bytes[0] = 'x';
+			bytes[bytes.length - 1] = '9';
+			System.arraycopy(value.getBytes(), 0, bytes, 4, value.getLength());
+			matcher.reset(bytes, 4, value.getLength());
+			check(value);
+		}
+		assertTrue(found > 0);
+	}
+
+	@Test
+	public void findsInMalformedUtf8() {
+		Random random = new Random(15);
+		for (int i = 0; i < 1000; i++) {
+			Text value = new Text(ScanFixture.value(random, 1 + random.nextInt(80)));
+			byte[] bytes = new byte[value.getLength()];
+			System.arraycopy(value.getBytes(), 0, bytes, 0, bytes.length);
+			// a stray continuation byte, or the lead byte of a sequence cut short
+			bytes[random.nextInt(bytes.length)] = (byte) (random.nextBoolean() ? 0x80 : 0xe6);
+			value.set(bytes);
+			matcher.reset(value);
+			check(value);
+		}
+		assertTrue(found > 0);
+	}
+}
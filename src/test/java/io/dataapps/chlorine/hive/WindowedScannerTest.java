@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016, DataApps Corporation (http://dataApps.io) .
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.dataapps.chlorine.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.junit.Test;
+
+public class WindowedScannerTest {
+
+	private static List<String> scan(List<Object[]> rows, String windowSize, String prefilter) throws Exception {
+		ObjectInspector[] inspectors = ScanFixture.textColumns(2);
+		return ScanFixture.results(ScanFixture.scan(new ScanUDF(),
+				ScanFixture.conf(ScanOptions.WINDOW_SIZE, windowSize, ScanOptions.WINDOW_OVERLAP, "64",
+						ScanOptions.PREFILTER, prefilter),
+				inspectors, rows));
+	}
+
+	@Test
+	public void scansAsWhole() throws Exception {
+		List<Object[]> rows = ScanFixture.rows(new Random(14), 200, 2, 6000);
+		List<String> whole = scan(rows, "0", "false");
+		assertTrue(whole.size() > 4);
+		assertEquals(whole, scan(rows, "256", "false"));
+		assertEquals(whole, scan(rows, "256", "true"));
+		// windows barely wider than the overlap
+		assertEquals(whole, scan(rows, "65", "true"));
+	}
+}